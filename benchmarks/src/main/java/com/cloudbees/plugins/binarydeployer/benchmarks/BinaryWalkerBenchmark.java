@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2017 CloudBees, Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.binarydeployer.benchmarks;
+
+import com.cloudbees.plugins.binarydeployer.core.Binary;
+import com.cloudbees.plugins.binarydeployer.core.BinaryWalker;
+import com.cloudbees.plugins.binarydeployer.core.SyntheticFile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the discovery of the binaries to deploy, on deep and on wide trees.
+ *
+ * @author Adrien Lecharpentier
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BinaryWalkerBenchmark {
+    /**
+     * depth:width:files per directory
+     */
+    @Param({"10:1:10", "3:10:10", "1:100:50"})
+    public String shape;
+
+    @Param({"false", "true"})
+    public boolean flatten;
+
+    private SyntheticFile root;
+
+    @Setup
+    public void setUp() {
+        String[] dimensions = shape.split(":");
+        root = SyntheticFile.tree(Integer.parseInt(dimensions[0]), Integer.parseInt(dimensions[1]),
+            Integer.parseInt(dimensions[2]), 0);
+    }
+
+    @Benchmark
+    public void walk(Blackhole blackhole) {
+        for (Binary binary : BinaryWalker.walk(root, flatten)) {
+            blackhole.consume(binary);
+        }
+    }
+
+    @Benchmark
+    public void walkInParallel(Blackhole blackhole) {
+        for (Binary binary : BinaryWalker.walkInParallel(root, flatten, 4)) {
+            blackhole.consume(binary);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2017 CloudBees, Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.binarydeployer.http;
+
+import com.cloudbees.plugins.binarydeployer.core.BinaryWalker;
+import com.cloudbees.plugins.binarydeployer.core.DeployReport;
+import com.cloudbees.plugins.binarydeployer.core.SyntheticFile;
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a whole deployment with {@link HttpUploader}, against an in-process HTTP server which discards what it
+ * receives. Run it with {@code -prof gc} to follow the allocation rate of the upload engine.
+ *
+ * @author Adrien Lecharpentier
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HttpDeployBenchmark {
+    @Param({"1024", "1048576"})
+    public long fileSize;
+
+    @Param({"10", "100"})
+    public int fileCount;
+
+    @Param({"1", "4", "16"})
+    public int concurrency;
+
+    @Param({"false", "true"})
+    public boolean compress;
+
+    private HttpServer server;
+    private ExecutorService serverThreads;
+    private SyntheticFile root;
+    private HttpUploader uploader;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 128);
+        server.createContext("/", exchange -> {
+            try (InputStream body = exchange.getRequestBody()) {
+                byte[] buffer = new byte[64 * 1024];
+                while (body.read(buffer) != -1) {
+                    // discard the content
+                }
+            }
+            exchange.sendResponseHeaders(201, -1);
+            exchange.close();
+        });
+        serverThreads = Executors.newFixedThreadPool(concurrency);
+        server.setExecutor(serverThreads);
+        server.start();
+
+        root = SyntheticFile.flat(fileCount, fileSize);
+        HttpRepository repository = new HttpRepository("http://localhost:" + server.getAddress().getPort() + "/",
+            null);
+        repository.setConcurrency(concurrency);
+        repository.setCompress(compress);
+        uploader = new HttpUploader(repository, null, null);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.stop(0);
+        serverThreads.shutdownNow();
+    }
+
+    @Benchmark
+    public DeployReport deploy() throws IOException, InterruptedException {
+        DeployReport report = new DeployReport("benchmark");
+        uploader.deploy(report.meter(BinaryWalker.walk(root, false)), report);
+        return report;
+    }
+}
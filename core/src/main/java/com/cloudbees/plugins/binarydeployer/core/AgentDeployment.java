@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2017 CloudBees, Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.binarydeployer.core;
+
+import com.google.common.collect.Lists;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+import jenkins.util.VirtualFile;
+
+import javax.annotation.CheckForNull;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Deploys files of the workspace from the agent they are on, using a {@link RemoteDeployer}.
+ * <p>
+ * The files are only deployed if none changed since they were archived, as the build could have written them again
+ * after archiving them. Otherwise nothing is deployed, so the master deploys the archived artifacts instead.
+ * </p>
+ *
+ * @author Adrien Lecharpentier
+ */
+class AgentDeployment extends MasterToSlaveFileCallable<AgentDeployment.Outcome> {
+    private static final long serialVersionUID = 1L;
+
+    private final RemoteDeployer deployer;
+    private final String target;
+    private final Map<String, Archived> artifacts;
+    private final boolean flatten;
+    private final Bundler bundler;
+    private final DeployOrder order;
+
+    /**
+     * @param deployer  the deployer to run on the agent
+     * @param target    the target of the repository, identifying the report
+     * @param artifacts the archived artifacts to deploy, by their path relative to the workspace
+     * @param flatten   whether the binaries should be named without their parent directories
+     * @param bundler   the archive the binaries are packed in, or null to deploy them one by one
+     * @param order     the order the binaries are deployed in
+     */
+    AgentDeployment(RemoteDeployer deployer, String target, Map<String, Archived> artifacts, boolean flatten,
+                    @CheckForNull Bundler bundler, DeployOrder order) {
+        this.deployer = deployer;
+        this.target = target;
+        this.artifacts = artifacts;
+        this.flatten = flatten;
+        this.bundler = bundler;
+        this.order = order;
+    }
+
+    @Override
+    public Outcome invoke(File workspace, VirtualChannel channel) throws IOException, InterruptedException {
+        List<Binary> binaries = Lists.newArrayListWithCapacity(artifacts.size());
+        List<String> changed = Lists.newArrayList();
+        for (Map.Entry<String, Archived> artifact : artifacts.entrySet()) {
+            String path = artifact.getKey();
+            File file = new File(workspace, path);
+            if (!artifact.getValue().matches(file)) {
+                changed.add(path);
+                continue;
+            }
+            int separator = path.lastIndexOf('/');
+            String parent = flatten || separator < 0 ? "" : path.substring(0, separator);
+            binaries.add(Binary.from(VirtualFile.forFile(file), parent));
+        }
+
+        // not finished, so the transfers are merged into the report of the run and finished there
+        DeployReport report = new DeployReport(target);
+        if (!changed.isEmpty()) {
+            return new Outcome(report, changed, null);
+        }
+        Iterable<Binary> sorted = order.sort(binaries);
+        Iterable<Binary> deployed = bundler == null ? sorted : Collections.singletonList(bundler.bundle(sorted));
+        try {
+            deployer.deploy(report.meter(deployed), report);
+        } catch (IOException e) {
+            // the transfers which succeeded before are still reported
+            return new Outcome(report, changed, e);
+        } catch (UncheckedIOException e) {
+            return new Outcome(report, changed, e.getCause());
+        }
+        return new Outcome(report, changed, null);
+    }
+
+    /**
+     * What the master knows of an archived artifact, to tell whether the file of the workspace is still the same.
+     */
+    static final class Archived implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final long length;
+        private final String algorithm;
+        private final String digest;
+
+        /**
+         * @param length    the length of the archived artifact
+         * @param algorithm the algorithm of the digest, {@code MD5} for a Jenkins fingerprint or {@code SHA-256}
+         * @param digest    the hexadecimal digest of the archived artifact
+         */
+        Archived(long length, String algorithm, String digest) {
+            this.length = length;
+            this.algorithm = algorithm;
+            this.digest = digest;
+        }
+
+        /**
+         * The length is compared first, so a file which changed size isn't read.
+         */
+        boolean matches(File file) throws IOException {
+            return file.isFile() && file.length() == length
+                && digest.equalsIgnoreCase(Digests.digest(VirtualFile.forFile(file), algorithm));
+        }
+    }
+
+    /**
+     * The report of the transfers done on the agent, returned even if the deployment failed.
+     */
+    static final class Outcome implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final DeployReport report;
+        private final List<String> changed;
+        @CheckForNull
+        private final IOException failure;
+
+        private Outcome(DeployReport report, List<String> changed, @CheckForNull IOException failure) {
+            this.report = report;
+            this.changed = changed;
+            this.failure = failure;
+        }
+
+        DeployReport getReport() {
+            return report;
+        }
+
+        /**
+         * @return the paths of the files which changed since they were archived, none were deployed if there are any
+         */
+        List<String> getChanged() {
+            return changed;
+        }
+
+        /**
+         * @return the failure of the deployment, or null if it succeeded
+         */
+        @CheckForNull
+        IOException getFailure() {
+            return failure;
+        }
+    }
+}
@@ -24,6 +24,9 @@ package com.cloudbees.plugins.binarydeployer.core;
 
 import jenkins.util.VirtualFile;
 
+import javax.annotation.CheckForNull;
+import java.io.IOException;
+
 /**
  * Represents the file to upload along with their name.
  * <p>
@@ -34,10 +37,12 @@ import jenkins.util.VirtualFile;
  */
 public class Binary {
     private final VirtualFile file;
+    private final VirtualFile source;
     private final String name;
 
-    private Binary(VirtualFile file, String name) {
+    private Binary(VirtualFile file, VirtualFile source, String name) {
         this.file = file;
+        this.source = source;
         this.name = name;
     }
 
@@ -45,12 +50,42 @@ public class Binary {
         return file;
     }
 
+    /**
+     * @return the file the binary was created from, read without being measured, throttled or counted in the memory
+     * budget of the deployment, for example to identify its content before transferring it
+     */
+    public VirtualFile getSource() {
+        return source;
+    }
+
     public String getName() {
         return name;
     }
 
+    /**
+     * Starts a copy of the content of the binary which doesn't read the stream of its file, so the operating system
+     * can move the bytes without copying them in the JVM. The copy is measured, throttled and counted in the memory
+     * budget like the stream would be, through the chunks reported to it.
+     *
+     * @return the copy, to close once done, or null if the content isn't on the local disk or can only be read from
+     * the stream of the file
+     * @throws IOException if the copy cannot be started
+     */
+    @CheckForNull
+    public LocalCopy copyLocally() throws IOException {
+        return ForwardingFile.copyOf(file);
+    }
+
+    /**
+     * @param file the file to read the content of the binary from
+     * @return a binary with the same name, reading its content from another file
+     */
+    Binary withFile(VirtualFile file) {
+        return new Binary(file, source, name);
+    }
+
     public static Binary from(VirtualFile file) {
-        return new Binary(file, file.getName());
+        return new Binary(file, file, file.getName());
     }
 
     public static Binary from(VirtualFile file, String parent) {
@@ -58,6 +93,6 @@ public class Binary {
             throw new IllegalArgumentException("Parent shouldn't be null");
         }
         if (!parent.isEmpty() && !parent.endsWith("/")) parent += "/";
-        return new Binary(file, parent + file.getName());
+        return new Binary(file, file, parent + file.getName());
     }
 }
@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2017 CloudBees, Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.binarydeployer.core;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+import javax.annotation.Nonnull;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+/**
+ * Deploys archived artifacts of a Pipeline run to a {@link Repository}.
+ * <p>
+ * The transfer runs in the background, so the step doesn't hold the CPS thread and, when called outside of a
+ * {@code node} block, doesn't hold an executor either. If the master restarts while the step is running, the
+ * deployment is started again, skipping the binaries it already deployed, as recorded in a journal of its own which is
+ * deleted once it succeeded.
+ * </p>
+ *
+ * @author Adrien Lecharpentier
+ */
+public class BinaryDeployStep extends Step implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final Repository repository;
+    private String includes = "**";
+    private String excludes;
+    private boolean flatten;
+    private DeployOrder order = DeployOrder.DISCOVERY;
+
+    @DataBoundConstructor
+    public BinaryDeployStep(Repository repository) {
+        this.repository = repository;
+    }
+
+    public Repository getRepository() {
+        return repository;
+    }
+
+    public String getIncludes() {
+        return includes;
+    }
+
+    /**
+     * @param includes the Ant-style patterns, separated by commas, of the archived artifacts to deploy
+     */
+    @DataBoundSetter
+    public void setIncludes(String includes) {
+        this.includes = includes == null || includes.trim().isEmpty() ? "**" : includes.trim();
+    }
+
+    public String getExcludes() {
+        return excludes;
+    }
+
+    /**
+     * @param excludes the Ant-style patterns, separated by commas, of the archived artifacts not to deploy
+     */
+    @DataBoundSetter
+    public void setExcludes(String excludes) {
+        this.excludes = Util.fixEmptyAndTrim(excludes);
+    }
+
+    public DeployOrder getOrder() {
+        return order == null ? DeployOrder.DISCOVERY : order;
+    }
+
+    /**
+     * @param order the order the binaries are given to the repository
+     */
+    @DataBoundSetter
+    public void setOrder(DeployOrder order) {
+        this.order = order;
+    }
+
+    public boolean isFlatten() {
+        return flatten;
+    }
+
+    @DataBoundSetter
+    public void setFlatten(boolean flatten) {
+        this.flatten = flatten;
+    }
+
+    @Override
+    public StepExecution start(StepContext context) throws Exception {
+        return new Execution(this, context);
+    }
+
+    private static final class Execution extends StepExecution {
+        private static final long serialVersionUID = 1L;
+        private static final Logger log = Logger.getLogger(Execution.class.getCanonicalName());
+        private static final ExecutorService executor = Executors.newCachedThreadPool(
+            new NamingThreadFactory(new DaemonThreadFactory(), "binaryDeploy"));
+
+        private final BinaryDeployStep step;
+        /** Names the journal of the execution, so two steps deploying to the same target don't share one. */
+        private final String id = UUID.randomUUID().toString();
+        /** Set by whichever completes the step first, as stopping it also interrupts the deployment, which fails. */
+        private final AtomicBoolean completed = new AtomicBoolean();
+        private transient volatile Future<?> task;
+        private transient boolean resumed;
+
+        private Execution(BinaryDeployStep step, StepContext context) {
+            super(context);
+            this.step = step;
+        }
+
+        @Override
+        public boolean start() throws Exception {
+            task = executor.submit(this::deploy);
+            return false;
+        }
+
+        @Override
+        public void stop(@Nonnull Throwable cause) throws Exception {
+            failed(cause);
+            Future<?> task = this.task;
+            if (task != null) {
+                task.cancel(true);
+            }
+        }
+
+        @Override
+        public void onResume() {
+            log.fine("Resuming the deployment to " + step.repository.getTarget());
+            resumed = true;
+            task = executor.submit(this::deploy);
+        }
+
+        private void deploy() {
+            try {
+                Run<?, ?> run = getContext().get(Run.class);
+                TaskListener listener = getContext().get(TaskListener.class);
+                listener.getLogger().println("Deploying files matching " + step.includes);
+
+                Iterable<Binary> binaries = step.getOrder().sort(BinaryWalker.walk(run.getArtifactManager().root(),
+                    step.flatten, PathFilter.of(step.includes, step.excludes)));
+
+                DeployReport report = DeployReport.of(run, step.repository);
+                try (DeployJournal journal = new DeployJournal(DeployReportAction.journal(run, id))) {
+                    if (resumed) {
+                        Set<String> deployed = journal.read();
+                        listener.getLogger().println("Skipping the " + deployed.size()
+                            + " files deployed before the master restarted");
+                        binaries = Iterables.filter(binaries, binary -> !deployed.contains(binary.getName()));
+                    }
+                    MemoryBudget.Usage memory = step.repository.getMemoryBudget().start();
+                    try (DeployScheduler.Permit permit = DeployScheduler.get().acquire(run, step.repository,
+                        listener)) {
+                        long start = System.nanoTime();
+                        try {
+                            step.repository.deploy(report.meter(permit.throttle(memory.limit(binaries)), journal),
+                                run);
+                        } finally {
+                            report.finished(System.nanoTime() - start);
+                            report.memory(memory);
+                            listener.getLogger().println(report.getSummary());
+                        }
+                    }
+                    journal.delete();
+                }
+                succeeded();
+            } catch (UncheckedIOException e) {
+                failed(e.getCause());
+            } catch (Exception e) {
+                failed(e);
+            }
+        }
+
+        private void succeeded() {
+            if (completed.compareAndSet(false, true)) {
+                getContext().onSuccess(null);
+            }
+        }
+
+        private void failed(Throwable cause) {
+            if (completed.compareAndSet(false, true)) {
+                getContext().onFailure(cause);
+            }
+        }
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends StepDescriptor {
+        @Override
+        public Set<? extends Class<?>> getRequiredContext() {
+            return ImmutableSet.of(Run.class, TaskListener.class);
+        }
+
+        @Override
+        public String getFunctionName() {
+            return "binaryDeploy";
+        }
+
+        @Nonnull
+        @Override
+        public String getDisplayName() {
+            return Messages.binarydeployer_core_step_displayName();
+        }
+
+        public List<RepositoryDescriptor> getRepositoryDescriptors() {
+            return RepositoryDescriptor.all();
+        }
+    }
+}
@@ -24,33 +24,57 @@
 
 package com.cloudbees.plugins.binarydeployer.core;
 
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import hudson.AbortException;
 import hudson.Extension;
+import hudson.FilePath;
 import hudson.Launcher;
+import hudson.Util;
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
 import hudson.model.BuildListener;
+import hudson.model.Result;
+import hudson.model.Run;
 import hudson.tasks.BuildStepDescriptor;
 import hudson.tasks.BuildStepMonitor;
+import hudson.tasks.Fingerprinter;
 import hudson.tasks.Publisher;
 import hudson.tasks.Recorder;
 import jenkins.util.VirtualFile;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
 import java.util.List;
-import java.util.logging.Logger;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * @author Adrien Lecharpentier
  */
 public class BinaryDeployerRecorder extends Recorder {
 
-    private static final Logger log = Logger.getLogger(BinaryDeployerRecorder.class.getCanonicalName());
-
     private final Repository repository;
     private final boolean flatten;
+    private boolean incremental;
+    private boolean verifyRemote;
+    private int discoveryThreads = 1;
+    private boolean deployFromAgent;
+    private BundleFormat bundleFormat = BundleFormat.NONE;
+    private String bundleName;
+    private boolean bundleManifest;
+    private String includes;
+    private String excludes;
+    private DeployOrder order = DeployOrder.DISCOVERY;
+    private ChangeDetection changeDetection = ChangeDetection.CONTENT;
+    private boolean dryRun;
 
     @DataBoundConstructor
     public BinaryDeployerRecorder(Repository repository, boolean flatten) {
@@ -67,32 +91,248 @@ public class BinaryDeployerRecorder extends Recorder {
     public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener)
         throws InterruptedException, IOException {
         listener.getLogger().println("Deploying files");
-        VirtualFile[] filesToDeploy = build.pickArtifactManager().root().list();
-        repository.deploy(crossDirectories(filesToDeploy), build);
+        // closed so a deployment which failed doesn't keep listing the rest of the tree
+        try (BinaryWalker.Discovery discovery = BinaryWalker.walkInParallel(build.pickArtifactManager().root(),
+            flatten, getDiscoveryThreads(), PathFilter.of(includes, excludes))) {
+            Iterable<Binary> binaries = getOrder().sort(discovery);
+            if (dryRun) {
+                dryRun(binaries, build, listener);
+            } else {
+                deploy(binaries, build, listener);
+            }
+        }
         return true;
     }
 
-    private List<Binary> crossDirectories(VirtualFile[] files) throws IOException {
-        return crossDirectories(files, "");
+    private void deploy(Iterable<Binary> binaries, AbstractBuild<?, ?> build, BuildListener listener)
+        throws InterruptedException, IOException {
+        DeployReport report = DeployReport.of(build, repository);
+        MemoryBudget.Usage memory = repository.getMemoryBudget().start();
+        try (DeployScheduler.Permit permit = DeployScheduler.get().acquire(build, repository, listener)) {
+            long start = System.nanoTime();
+            try {
+                RemoteDeployer remoteDeployer = deployFromAgent ? remoteDeployer(build, listener) : null;
+                if (remoteDeployer == null || !deployFromAgent(remoteDeployer, build, listener, report)) {
+                    if (incremental) {
+                        deployIncrementally(binaries, build, listener, report, permit, memory);
+                    } else {
+                        repository.deploy(report.meter(permit.throttle(memory.limit(bundle(binaries)))), build);
+                    }
+                }
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } finally {
+                report.finished(System.nanoTime() - start);
+                report.memory(memory);
+                listener.getLogger().println(report.getSummary());
+            }
+        }
     }
 
-    private List<Binary> crossDirectories(VirtualFile[] files, String parentName) throws IOException {
-        List<Binary> binaries = Lists.newArrayList();
-        for (VirtualFile file : files) {
-            if (file.isDirectory()) {
-                binaries.addAll(crossDirectories(
-                    file.list(),
-                    flatten ?
-                        parentName :
-                        (parentName.isEmpty() ? parentName : parentName + "/") + file.getName()
-                    )
-                );
-            } else {
-                log.fine("Prepare " + parentName + file.getName() + " for deployment");
-                binaries.add(Binary.from(file, parentName));
+    @CheckForNull
+    private RemoteDeployer remoteDeployer(AbstractBuild<?, ?> build, BuildListener listener) throws IOException {
+        RemoteDeployer remoteDeployer = repository.createRemoteDeployer(build);
+        if (remoteDeployer == null) {
+            listener.getLogger().println(repository.getDescriptor().getDisplayName()
+                + " cannot deploy from the agent, deploying from the master");
+            return null;
+        }
+        if (incremental) {
+            listener.getLogger().println("Incremental deployment is not supported from the agent, deploying all files");
+        }
+        return remoteDeployer;
+    }
+
+    /**
+     * @return whether the binaries were deployed from the agent, false if some changed in the workspace since they were
+     * archived, so they must be deployed from the master
+     */
+    private boolean deployFromAgent(RemoteDeployer remoteDeployer, AbstractBuild<?, ?> build, BuildListener listener,
+                                    DeployReport report) throws IOException, InterruptedException {
+        FilePath workspace = build.getWorkspace();
+        if (workspace == null) {
+            throw new AbortException("Cannot deploy from the agent, the workspace is not available");
+        }
+
+        // the archived artifacts are still in the workspace, under the same relative paths, unless written again since
+        PathFilter filter = PathFilter.of(includes, excludes);
+        Fingerprinter.FingerprintAction fingerprints = build.getAction(Fingerprinter.FingerprintAction.class);
+        VirtualFile root = build.getArtifactManager().root();
+        Map<String, AgentDeployment.Archived> artifacts = Maps.newLinkedHashMap();
+        for (Run<?, ?>.Artifact artifact : build.getArtifacts()) {
+            if (filter.includes(artifact.relativePath)) {
+                artifacts.put(artifact.relativePath, archived(root.child(artifact.relativePath),
+                    fingerprints == null ? null : fingerprints.getRecords().get(artifact.relativePath)));
+            }
+        }
+        AgentDeployment.Outcome outcome;
+        try {
+            outcome = workspace.act(new AgentDeployment(remoteDeployer, repository.getTarget(), artifacts, flatten,
+                bundler(), getOrder()));
+        } catch (IOException e) {
+            build.setResult(Result.FAILURE);
+            throw e;
+        }
+        if (!outcome.getChanged().isEmpty()) {
+            listener.getLogger().println(outcome.getChanged().size()
+                + " files changed in the workspace since they were archived, deploying from the master");
+            return false;
+        }
+        report.merge(outcome.getReport());
+        if (outcome.getFailure() != null) {
+            build.setResult(Result.FAILURE);
+            throw outcome.getFailure();
+        }
+        return true;
+    }
+
+    /**
+     * @param md5 the fingerprint of the artifact, sparing the master from reading it, or null if it has none
+     */
+    private static AgentDeployment.Archived archived(VirtualFile file, @CheckForNull String md5) throws IOException {
+        return md5 != null ? new AgentDeployment.Archived(file.length(), "MD5", md5)
+            : new AgentDeployment.Archived(file.length(), "SHA-256", Digests.sha256(file));
+    }
+
+    private void deployIncrementally(Iterable<Binary> binaries, AbstractBuild<?, ?> build, BuildListener listener,
+                                     DeployReport report, DeployScheduler.Permit permit, MemoryBudget.Usage memory)
+        throws IOException, InterruptedException {
+        DeployIndex index = DeployIndex.load(build.getParent(), repository);
+        Map<String, DeployIndex.Entry> entries = Maps.newHashMap();
+        List<Binary> unchanged = Lists.newArrayList();
+        boolean succeeded = false;
+        try {
+            Iterable<Binary> changed = changed(binaries, build, index, entries, unchanged);
+            repository.deploy(report.meter(permit.throttle(memory.limit(bundle(changed)))), build);
+
+            if (verifyRemote && !unchanged.isEmpty() && bundler() != null) {
+                listener.getLogger().println("Unchanged files cannot be verified when they are bundled");
+            } else if (verifyRemote && !unchanged.isEmpty()) {
+                List<Binary> missing = repository.missing(unchanged, build);
+                if (!missing.isEmpty()) {
+                    listener.getLogger().println("Deploying " + missing.size()
+                        + " unchanged files missing from the repository");
+                    repository.deploy(report.meter(permit.throttle(memory.limit(missing))), build);
+                    unchanged.removeAll(missing);
+                }
             }
+            listener.getLogger().println("Skipped " + unchanged.size() + " unchanged files");
+            succeeded = true;
+        } finally {
+            // keep what was deployed before a failure, so the next build only deploys the rest
+            for (Map.Entry<String, DeployIndex.Entry> entry : entries.entrySet()) {
+                if (succeeded || report.isDeployed(entry.getKey())) {
+                    index.put(entry.getKey(), entry.getValue());
+                }
+            }
+            index.save();
+        }
+    }
+
+    /**
+     * The binaries are compared with the index when the result is iterated. Errors raised while reading them are thrown
+     * as {@link UncheckedIOException}, like the errors of the discovery.
+     *
+     * @param entries   collects the identity of every binary, to record once they are deployed
+     * @param unchanged collects the binaries left out
+     * @return the binaries which changed since they were recorded in the index
+     */
+    private Iterable<Binary> changed(Iterable<Binary> binaries, AbstractBuild<?, ?> build, DeployIndex index,
+                                     Map<String, DeployIndex.Entry> entries, List<Binary> unchanged) {
+        Map<String, String> fingerprints = getChangeDetection() == ChangeDetection.METADATA
+            ? fingerprints(build) : Collections.emptyMap();
+        return Iterables.filter(binaries, binary -> {
+            try {
+                DeployIndex.Entry entry = entry(binary, fingerprints);
+                entries.put(binary.getName(), entry);
+                if (entry.equals(index.get(binary.getName()))) {
+                    unchanged.add(binary);
+                    return false;
+                }
+                return true;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private DeployIndex.Entry entry(Binary binary, Map<String, String> fingerprints) throws IOException {
+        VirtualFile file = binary.getFile();
+        if (getChangeDetection() == ChangeDetection.CONTENT) {
+            return new DeployIndex.Entry(file.length(), Digests.sha256(file));
+        }
+        String md5 = fingerprints.get(binary.getName());
+        return md5 != null ? DeployIndex.Entry.fingerprinted(file.length(), md5)
+            : DeployIndex.Entry.modified(file.length(), file.lastModified());
+    }
+
+    /**
+     * @return the MD5 of the artifacts Jenkins fingerprinted during the build, by the name of their binary
+     */
+    private Map<String, String> fingerprints(AbstractBuild<?, ?> build) {
+        Fingerprinter.FingerprintAction action = build.getAction(Fingerprinter.FingerprintAction.class);
+        if (action == null) {
+            return Collections.emptyMap();
+        }
+        if (!flatten) {
+            return action.getRecords();
+        }
+        Map<String, String> fingerprints = Maps.newHashMap();
+        Set<String> ambiguous = Sets.newHashSet();
+        for (Map.Entry<String, String> record : action.getRecords().entrySet()) {
+            String name = record.getKey().substring(record.getKey().lastIndexOf('/') + 1);
+            if (fingerprints.put(name, record.getValue()) != null) {
+                ambiguous.add(name);
+            }
+        }
+        // flattened files of the same name cannot be told apart, their timestamps are compared instead
+        fingerprints.keySet().removeAll(ambiguous);
+        return fingerprints;
+    }
+
+    /**
+     * Lists the binaries a deployment would send, without sending them or recording anything.
+     */
+    private void dryRun(Iterable<Binary> binaries, AbstractBuild<?, ?> build, BuildListener listener)
+        throws IOException {
+        List<Binary> unchanged = Lists.newArrayList();
+        if (incremental) {
+            binaries = changed(binaries, build, DeployIndex.load(build.getParent(), repository), Maps.newHashMap(),
+                unchanged);
+        }
+        int count = 0;
+        long bytes = 0;
+        try {
+            for (Binary binary : binaries) {
+                long length = binary.getFile().length();
+                listener.getLogger().println(String.format("Would deploy %s (%.2f MB)", binary.getName(),
+                    length / 1048576.0));
+                count++;
+                bytes += length;
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        if (incremental) {
+            listener.getLogger().println("Would skip " + unchanged.size() + " unchanged files");
+        }
+        String bundle = getBundleFormat() == BundleFormat.NONE ? ""
+            : ", in a single " + getBundleFormat().getDisplayName();
+        listener.getLogger().println(String.format("Dry run: would deploy %d files (%.2f MB) to %s%s", count,
+            bytes / 1048576.0, repository.getTarget(), bundle));
+    }
+
+    private Iterable<Binary> bundle(Iterable<Binary> binaries) {
+        Bundler bundler = bundler();
+        return bundler == null ? binaries : Collections.singletonList(bundler.bundle(binaries));
+    }
+
+    @CheckForNull
+    private Bundler bundler() {
+        if (getBundleFormat() == BundleFormat.NONE) {
+            return null;
         }
-        return binaries;
+        return new Bundler(bundleFormat, getBundleName(), bundleManifest);
     }
 
     public Repository getRepository() {
@@ -103,6 +343,150 @@ public class BinaryDeployerRecorder extends Recorder {
         return flatten;
     }
 
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    /**
+     * @param incremental only deploy the binaries which changed since the last deployment of the job
+     */
+    @DataBoundSetter
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    public ChangeDetection getChangeDetection() {
+        return changeDetection == null ? ChangeDetection.CONTENT : changeDetection;
+    }
+
+    /**
+     * @param changeDetection how incremental deployments tell the binaries which changed
+     */
+    @DataBoundSetter
+    public void setChangeDetection(ChangeDetection changeDetection) {
+        this.changeDetection = changeDetection;
+    }
+
+    public boolean isDryRun() {
+        return dryRun;
+    }
+
+    /**
+     * @param dryRun only list the binaries which would be deployed, and their size
+     */
+    @DataBoundSetter
+    public void setDryRun(boolean dryRun) {
+        this.dryRun = dryRun;
+    }
+
+    public boolean isVerifyRemote() {
+        return verifyRemote;
+    }
+
+    /**
+     * @param verifyRemote check with the repository that unchanged binaries are still available
+     */
+    @DataBoundSetter
+    public void setVerifyRemote(boolean verifyRemote) {
+        this.verifyRemote = verifyRemote;
+    }
+
+    public int getDiscoveryThreads() {
+        return discoveryThreads < 1 ? 1 : discoveryThreads;
+    }
+
+    /**
+     * @param discoveryThreads the number of directories listed at the same time when discovering the files to deploy
+     */
+    @DataBoundSetter
+    public void setDiscoveryThreads(int discoveryThreads) {
+        this.discoveryThreads = discoveryThreads;
+    }
+
+    public boolean isDeployFromAgent() {
+        return deployFromAgent;
+    }
+
+    /**
+     * @param deployFromAgent send the files from the workspace on the agent, when the repository supports it
+     */
+    @DataBoundSetter
+    public void setDeployFromAgent(boolean deployFromAgent) {
+        this.deployFromAgent = deployFromAgent;
+    }
+
+    public BundleFormat getBundleFormat() {
+        return bundleFormat == null ? BundleFormat.NONE : bundleFormat;
+    }
+
+    /**
+     * @param bundleFormat the format of the archive the binaries are deployed in, as a single file
+     */
+    @DataBoundSetter
+    public void setBundleFormat(BundleFormat bundleFormat) {
+        this.bundleFormat = bundleFormat;
+    }
+
+    /**
+     * @return the name of the archive, without its extension, defaults to {@code binaries}
+     */
+    public String getBundleName() {
+        return bundleName == null ? "binaries" : bundleName;
+    }
+
+    @DataBoundSetter
+    public void setBundleName(String bundleName) {
+        this.bundleName = Util.fixEmptyAndTrim(bundleName);
+    }
+
+    public boolean isBundleManifest() {
+        return bundleManifest;
+    }
+
+    /**
+     * @param bundleManifest add the SHA-256 of every binary to the archive, in a {@code SHA256SUMS} entry
+     */
+    @DataBoundSetter
+    public void setBundleManifest(boolean bundleManifest) {
+        this.bundleManifest = bundleManifest;
+    }
+
+    public String getIncludes() {
+        return includes;
+    }
+
+    /**
+     * @param includes the Ant-style patterns, separated by commas, of the archived files to deploy
+     */
+    @DataBoundSetter
+    public void setIncludes(String includes) {
+        this.includes = Util.fixEmptyAndTrim(includes);
+    }
+
+    public String getExcludes() {
+        return excludes;
+    }
+
+    /**
+     * @param excludes the Ant-style patterns, separated by commas, of the archived files not to deploy
+     */
+    @DataBoundSetter
+    public void setExcludes(String excludes) {
+        this.excludes = Util.fixEmptyAndTrim(excludes);
+    }
+
+    public DeployOrder getOrder() {
+        return order == null ? DeployOrder.DISCOVERY : order;
+    }
+
+    /**
+     * @param order the order the binaries are given to the repository
+     */
+    @DataBoundSetter
+    public void setOrder(DeployOrder order) {
+        this.order = order;
+    }
+
     @Extension
     public static final class BinaryDeployerDescriptor extends BuildStepDescriptor<Publisher> {
         @Override
@@ -0,0 +1,340 @@
+/*
+ * Copyright (c) 2017 CloudBees, Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.binarydeployer.core;
+
+import com.google.common.collect.AbstractIterator;
+import jenkins.util.VirtualFile;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Lazily discovers the {@link Binary} to deploy under a directory.
+ * <p>
+ * Directories are only listed when the iteration reaches them, so a {@link Repository} can start deploying the first
+ * binaries while the rest of the tree is still being discovered. As {@link Iterator} cannot throw checked exceptions,
+ * the errors raised while listing the directories are thrown as {@link UncheckedIOException}.
+ * </p>
+ * <p>
+ * A walk must be closed once the binaries are not needed anymore, so a deployment which stopped early doesn't keep
+ * listing the rest of the tree.
+ * </p>
+ *
+ * @author Adrien Lecharpentier
+ */
+public final class BinaryWalker {
+    private static final Logger log = Logger.getLogger(BinaryWalker.class.getCanonicalName());
+
+    private BinaryWalker() {
+    }
+
+    /**
+     * Walks the tree depth-first, in the order the directories are listed.
+     *
+     * @param root    the directory to walk
+     * @param flatten whether the binaries should be named without their parent directories
+     * @return the binaries found under the root directory
+     */
+    public static Discovery walk(final VirtualFile root, final boolean flatten) {
+        return walk(root, flatten, PathFilter.ALL);
+    }
+
+    /**
+     * Walks the tree depth-first, in the order the directories are listed, only listing the directories which can
+     * contain selected files.
+     *
+     * @param root    the directory to walk
+     * @param flatten whether the binaries should be named without their parent directories
+     * @param filter  the files to select, by their path relative to the root
+     * @return the binaries selected under the root directory
+     */
+    public static Discovery walk(final VirtualFile root, final boolean flatten, final PathFilter filter) {
+        return new Discovery() {
+            @Override
+            public Iterator<Binary> iterator() {
+                return new SequentialWalk(root, flatten, filter);
+            }
+
+            @Override
+            public void close() {
+                // nothing is listed ahead of the iteration
+            }
+        };
+    }
+
+    /**
+     * Walks the tree listing several directories at the same time, which pays off when listing a directory is a
+     * remote call. The order of the binaries is not predictable and the result can only be iterated once.
+     *
+     * @param root        the directory to walk
+     * @param flatten     whether the binaries should be named without their parent directories
+     * @param parallelism the number of directories listed at the same time
+     * @return the binaries found under the root directory
+     */
+    public static Discovery walkInParallel(final VirtualFile root, final boolean flatten, final int parallelism) {
+        return walkInParallel(root, flatten, parallelism, PathFilter.ALL);
+    }
+
+    /**
+     * Walks the tree listing several directories at the same time, only listing the directories which can contain
+     * selected files. The order of the binaries is not predictable and the result can only be iterated once.
+     *
+     * @param root        the directory to walk
+     * @param flatten     whether the binaries should be named without their parent directories
+     * @param parallelism the number of directories listed at the same time
+     * @param filter      the files to select, by their path relative to the root
+     * @return the binaries selected under the root directory
+     */
+    public static Discovery walkInParallel(final VirtualFile root, final boolean flatten, final int parallelism,
+                                           final PathFilter filter) {
+        if (parallelism <= 1) {
+            return walk(root, flatten, filter);
+        }
+        return new ParallelWalk(root, flatten, parallelism, filter);
+    }
+
+    /**
+     * The binaries of a walk, which stops listing the tree once closed.
+     */
+    public interface Discovery extends Iterable<Binary>, Closeable {
+        @Override
+        void close();
+    }
+
+    private static String childName(String parentName, VirtualFile directory, boolean flatten) {
+        if (flatten) {
+            return parentName;
+        }
+        return childPath(parentName, directory);
+    }
+
+    private static String childPath(String parentPath, VirtualFile file) {
+        return (parentPath.isEmpty() ? parentPath : parentPath + "/") + file.getName();
+    }
+
+    private static final class SequentialWalk extends AbstractIterator<Binary> {
+        private final Deque<Level> levels = new ArrayDeque<>();
+        private final VirtualFile root;
+        private final boolean flatten;
+        private final PathFilter filter;
+        private boolean started;
+
+        private SequentialWalk(VirtualFile root, boolean flatten, PathFilter filter) {
+            this.root = root;
+            this.flatten = flatten;
+            this.filter = filter;
+        }
+
+        @Override
+        protected Binary computeNext() {
+            try {
+                if (!started) {
+                    levels.push(new Level(root, "", ""));
+                    started = true;
+                }
+                while (!levels.isEmpty()) {
+                    Level level = levels.peek();
+                    if (!level.files.hasNext()) {
+                        levels.pop();
+                        continue;
+                    }
+                    VirtualFile file = level.files.next();
+                    String path = childPath(level.path, file);
+                    if (file.isDirectory()) {
+                        if (filter.canContain(path)) {
+                            levels.push(new Level(file, path, childName(level.name, file, flatten)));
+                        }
+                    } else if (filter.includes(path)) {
+                        log.fine("Prepare " + level.name + file.getName() + " for deployment");
+                        return Binary.from(file, level.name);
+                    }
+                }
+                return endOfData();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private static final class Level {
+            private final Iterator<VirtualFile> files;
+            private final String path;
+            private final String name;
+
+            private Level(VirtualFile directory, String path, String name) throws IOException {
+                this.files = Arrays.asList(directory.list()).iterator();
+                this.path = path;
+                this.name = name;
+            }
+        }
+    }
+
+    private static final class ParallelWalk implements Discovery {
+        /** Marks the end of the walk in the queue. */
+        private static final Object END = new Object();
+        /** The binaries discovered ahead of the deployment, the listing waits when it is reached. */
+        private static final int QUEUE_CAPACITY = 1024;
+
+        private final VirtualFile root;
+        private final boolean flatten;
+        private final int parallelism;
+        private final PathFilter filter;
+        private final BlockingQueue<Object> queue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+        private volatile Throwable failure;
+        private volatile boolean closed;
+        private ForkJoinPool pool;
+        private boolean started;
+
+        private ParallelWalk(VirtualFile root, boolean flatten, int parallelism, PathFilter filter) {
+            this.root = root;
+            this.flatten = flatten;
+            this.parallelism = parallelism;
+            this.filter = filter;
+        }
+
+        @Override
+        public synchronized Iterator<Binary> iterator() {
+            if (started) {
+                throw new IllegalStateException("A parallel walk can only be iterated once");
+            }
+            started = true;
+
+            pool = new ForkJoinPool(parallelism);
+            pool.execute(new Walk(null, root, "", "") {
+                @Override
+                public void onCompletion(CountedCompleter<?> caller) {
+                    publish(END);
+                    pool.shutdown();
+                }
+
+                @Override
+                public boolean onExceptionalCompletion(Throwable ex, CountedCompleter<?> caller) {
+                    failure = ex;
+                    publish(END);
+                    pool.shutdownNow();
+                    return true;
+                }
+            });
+
+            return new AbstractIterator<Binary>() {
+                @Override
+                protected Binary computeNext() {
+                    if (closed) {
+                        return endOfData();
+                    }
+                    Object next;
+                    try {
+                        next = queue.take();
+                    } catch (InterruptedException e) {
+                        close();
+                        Thread.currentThread().interrupt();
+                        throw new IllegalStateException("Interrupted while discovering the files to deploy", e);
+                    }
+                    if (next != END) {
+                        return (Binary) next;
+                    }
+                    if (failure != null) {
+                        throw failure instanceof UncheckedIOException ?
+                            (UncheckedIOException) failure :
+                            new IllegalStateException("Cannot discover the files to deploy", failure);
+                    }
+                    return endOfData();
+                }
+            };
+        }
+
+        @Override
+        public synchronized void close() {
+            closed = true;
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+            // the listing may be waiting for room in the queue
+            queue.clear();
+        }
+
+        /**
+         * Waits for room in the queue, unless the walk is closed.
+         */
+        private void publish(Object element) {
+            try {
+                while (!closed && !queue.offer(element, 100, TimeUnit.MILLISECONDS)) {
+                    log.finest("Waiting for the deployment to catch up with the discovery");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private class Walk extends CountedCompleter<Void> {
+            private final VirtualFile directory;
+            private final String path;
+            private final String name;
+
+            private Walk(CountedCompleter<?> parent, VirtualFile directory, String path, String name) {
+                super(parent);
+                this.directory = directory;
+                this.path = path;
+                this.name = name;
+            }
+
+            @Override
+            public void compute() {
+                if (closed) {
+                    tryComplete();
+                    return;
+                }
+                try {
+                    for (VirtualFile file : directory.list()) {
+                        if (closed) {
+                            break;
+                        }
+                        String filePath = childPath(path, file);
+                        if (file.isDirectory()) {
+                            if (filter.canContain(filePath)) {
+                                addToPendingCount(1);
+                                new Walk(this, file, filePath, childName(name, file, flatten)).fork();
+                            }
+                        } else if (filter.includes(filePath)) {
+                            log.fine("Prepare " + name + file.getName() + " for deployment");
+                            publish(Binary.from(file, name));
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                tryComplete();
+            }
+        }
+    }
+}
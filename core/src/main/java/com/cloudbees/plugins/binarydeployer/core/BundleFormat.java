@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2017 CloudBees, Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.binarydeployer.core;
+
+import org.jvnet.localizer.Localizable;
+
+/**
+ * The archive format binaries are bundled in by the {@link BinaryDeployerRecorder}.
+ *
+ * @author Adrien Lecharpentier
+ */
+public enum BundleFormat {
+    NONE(null, Messages._binarydeployer_core_bundle_none()),
+    ZIP("zip", Messages._binarydeployer_core_bundle_zip()),
+    TAR("tar", Messages._binarydeployer_core_bundle_tar());
+
+    private final String extension;
+    private final Localizable displayName;
+
+    BundleFormat(String extension, Localizable displayName) {
+        this.extension = extension;
+        this.displayName = displayName;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    public String getDisplayName() {
+        return displayName.toString();
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright (c) 2017 CloudBees, Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.binarydeployer.core;
+
+import com.google.common.collect.ImmutableList;
+import hudson.Util;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.util.VirtualFile;
+import org.apache.commons.compress.archivers.ArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.Serializable;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Packs binaries into a single archive, deployed as one binary.
+ * <p>
+ * The archive is never stored: it is written by a background thread while the repository reads it, and written again
+ * each time the repository opens it, so a failed transfer can be retried. Its length is unknown.
+ * </p>
+ *
+ * @author Adrien Lecharpentier
+ */
+class Bundler implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /**
+     * Name of the manifest entry, listing the SHA-256 of every binary in the format of {@code sha256sum}.
+     */
+    static final String MANIFEST = "SHA256SUMS";
+
+    private static final ExecutorService writers = Executors.newCachedThreadPool(
+        new NamingThreadFactory(new DaemonThreadFactory(), "Bundler"));
+
+    private final BundleFormat format;
+    private final String name;
+    private final boolean manifest;
+
+    /**
+     * @param format   the archive format, not {@link BundleFormat#NONE}
+     * @param name     the name of the archive, without its extension
+     * @param manifest whether a {@link #MANIFEST} entry is added at the end of the archive
+     */
+    Bundler(BundleFormat format, String name, boolean manifest) {
+        if (format == BundleFormat.NONE) {
+            throw new IllegalArgumentException("A bundle needs an archive format");
+        }
+        this.format = format;
+        this.name = name + "." + format.getExtension();
+        this.manifest = manifest;
+    }
+
+    /**
+     * The binaries are read once, when this method is called, and kept with their names.
+     *
+     * @param binaries the binaries to pack
+     * @return the archive of the binaries
+     */
+    Binary bundle(Iterable<Binary> binaries) {
+        return Binary.from(new BundleFile(ImmutableList.copyOf(binaries)));
+    }
+
+    private ArchiveOutputStream newArchive(OutputStream output) {
+        switch (format) {
+            case ZIP:
+                return new ZipArchiveOutputStream(output);
+            case TAR:
+                TarArchiveOutputStream tar = new TarArchiveOutputStream(output, StandardCharsets.UTF_8.name());
+                tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+                tar.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+                return tar;
+            default:
+                throw new IllegalStateException("Unsupported bundle format " + format);
+        }
+    }
+
+    private void putEntry(ArchiveOutputStream archive, String entryName, long length, long lastModified)
+        throws IOException {
+        if (format == BundleFormat.TAR) {
+            TarArchiveEntry entry = new TarArchiveEntry(entryName);
+            entry.setSize(length);
+            entry.setModTime(lastModified);
+            archive.putArchiveEntry(entry);
+        } else {
+            ZipArchiveEntry entry = new ZipArchiveEntry(entryName);
+            // written to a stream, the entry can only use the ZIP64 extensions if its size is known before its content
+            entry.setSize(length);
+            entry.setTime(lastModified);
+            archive.putArchiveEntry(entry);
+        }
+    }
+
+    private void write(List<Binary> binaries, OutputStream output) throws IOException {
+        StringBuilder sums = new StringBuilder();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        // only closed once complete, a failure must not look like the end of the archive to the reader
+        ArchiveOutputStream archive = newArchive(output);
+        for (Binary binary : binaries) {
+            VirtualFile file = binary.getFile();
+            // an entry announces its length, so it is read once and checked against what is copied
+            long length = file.length();
+            putEntry(archive, binary.getName(), length, file.lastModified());
+            MessageDigest digest = Digests.newDigest("SHA-256");
+            long copied = 0;
+            try (InputStream input = file.open()) {
+                int read;
+                while ((read = input.read(buffer)) != -1) {
+                    archive.write(buffer, 0, read);
+                    digest.update(buffer, 0, read);
+                    copied += read;
+                }
+            }
+            if (copied != length) {
+                throw new IOException(binary.getName() + " changed while it was bundled, expected " + length
+                    + " bytes but read " + copied);
+            }
+            archive.closeArchiveEntry();
+            sums.append(Util.toHexString(digest.digest())).append("  ").append(binary.getName()).append('\n');
+        }
+
+        if (manifest) {
+            byte[] content = sums.toString().getBytes(StandardCharsets.UTF_8);
+            putEntry(archive, MANIFEST, content.length, System.currentTimeMillis());
+            archive.write(content);
+            archive.closeArchiveEntry();
+        }
+        archive.finish();
+        archive.close();
+    }
+
+    private final class BundleFile extends VirtualFile {
+        private final List<Binary> binaries;
+
+        private BundleFile(List<Binary> binaries) {
+            this.binaries = binaries;
+        }
+
+        @Override
+        public InputStream open() throws IOException {
+            final PipedInputStream input = new PipedInputStream(BUFFER_SIZE);
+            final PipedOutputStream output = new PipedOutputStream(input);
+            final IOException[] failure = new IOException[1];
+            writers.submit(() -> {
+                try {
+                    write(binaries, output);
+                } catch (IOException | RuntimeException e) {
+                    // recorded before the pipe is closed, so the reader sees it instead of the end of the stream
+                    synchronized (failure) {
+                        failure[0] = e instanceof IOException ? (IOException) e : new IOException(e);
+                    }
+                } finally {
+                    try {
+                        output.close();
+                    } catch (IOException e) {
+                        // the reader is gone
+                    }
+                }
+            });
+            return new FilterInputStream(input) {
+                @Override
+                public int read() throws IOException {
+                    int read = super.read();
+                    if (read == -1) checkFailure();
+                    return read;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int read = super.read(b, off, len);
+                    if (read == -1) checkFailure();
+                    return read;
+                }
+
+                private void checkFailure() throws IOException {
+                    synchronized (failure) {
+                        if (failure[0] != null) {
+                            throw new IOException("Cannot bundle the binaries in " + name, failure[0]);
+                        }
+                    }
+                }
+            };
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public URI toURI() {
+            try {
+                return new URI("bundle", name, null);
+            } catch (URISyntaxException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public VirtualFile getParent() {
+            return null;
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return false;
+        }
+
+        @Override
+        public boolean isFile() {
+            return true;
+        }
+
+        @Override
+        public boolean exists() {
+            return true;
+        }
+
+        @Override
+        public VirtualFile[] list() {
+            return new VirtualFile[0];
+        }
+
+        @Override
+        public String[] list(String glob) {
+            return new String[0];
+        }
+
+        @Override
+        public VirtualFile child(String childName) {
+            throw new UnsupportedOperationException(name + " is not a directory");
+        }
+
+        /**
+         * @return -1, the length of the archive is only known once it is written
+         */
+        @Override
+        public long length() {
+            return -1;
+        }
+
+        @Override
+        public long lastModified() {
+            return System.currentTimeMillis();
+        }
+
+        @Override
+        public boolean canRead() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2017 CloudBees, Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.binarydeployer.core;
+
+import hudson.Util;
+import jenkins.util.VirtualFile;
+
+import javax.annotation.CheckForNull;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+
+/**
+ * Computes the {@link Checksums} of a file while a repository reads it, so its content is read only once.
+ * <p>
+ * The checksums are the ones of the last stream read entirely, a transfer retried computing them again.
+ * </p>
+ *
+ * @author Adrien Lecharpentier
+ */
+public final class ChecksumFile extends ForwardingFile {
+    private volatile Checksums checksums;
+
+    public ChecksumFile(VirtualFile file) {
+        super(file);
+    }
+
+    /**
+     * @return the checksums of the content, or null if it was never read entirely
+     */
+    @CheckForNull
+    public Checksums getChecksums() {
+        return checksums;
+    }
+
+    @Override
+    public InputStream open() throws IOException {
+        final long length = file.length();
+        return new FilterInputStream(file.open()) {
+            private final MessageDigest md5 = Digests.newDigest("MD5");
+            private final MessageDigest sha1 = Digests.newDigest("SHA-1");
+            private final MessageDigest sha256 = Digests.newDigest("SHA-256");
+            private long count;
+            private boolean done;
+
+            @Override
+            public int read() throws IOException {
+                int read = super.read();
+                if (read == -1) {
+                    finish();
+                } else {
+                    update(new byte[]{(byte) read}, 0, 1);
+                }
+                return read;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int read = super.read(b, off, len);
+                if (read == -1) {
+                    finish();
+                } else {
+                    update(b, off, read);
+                }
+                return read;
+            }
+
+            /**
+             * Bytes read again after a reset would be digested twice.
+             */
+            @Override
+            public boolean markSupported() {
+                return false;
+            }
+
+            @Override
+            public void close() throws IOException {
+                super.close();
+                // some clients stop reading once they got the announced length, without waiting for the end
+                if (length >= 0 && count == length) {
+                    finish();
+                }
+            }
+
+            private void update(byte[] b, int off, int len) {
+                md5.update(b, off, len);
+                sha1.update(b, off, len);
+                sha256.update(b, off, len);
+                count += len;
+            }
+
+            private void finish() {
+                if (!done) {
+                    done = true;
+                    checksums = new Checksums(Util.toHexString(md5.digest()), Util.toHexString(sha1.digest()),
+                        Util.toHexString(sha256.digest()));
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2017 CloudBees, Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.binarydeployer.core;
+
+import com.google.common.collect.ImmutableMap;
+
+import javax.annotation.CheckForNull;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Map;
+
+/**
+ * The MD5, SHA-1 and SHA-256 digests of the content of a {@link Binary}, as read by a {@link ChecksumFile}.
+ *
+ * @author Adrien Lecharpentier
+ */
+public final class Checksums implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String md5;
+    private final String sha1;
+    private final String sha256;
+
+    Checksums(String md5, String sha1, String sha256) {
+        this.md5 = md5;
+        this.sha1 = sha1;
+        this.sha256 = sha256;
+    }
+
+    public String getMd5() {
+        return md5;
+    }
+
+    public String getSha1() {
+        return sha1;
+    }
+
+    public String getSha256() {
+        return sha256;
+    }
+
+    /**
+     * @return the hexadecimal digests by the extension of their sidecar file, like {@code sha256}
+     */
+    public Map<String, String> bySidecarExtension() {
+        return ImmutableMap.of("md5", md5, "sha1", sha1, "sha256", sha256);
+    }
+
+    /**
+     * Compares a digest computed by the repository to the one of what was sent. Digests are compared ignoring their
+     * case, as repositories write them either way.
+     *
+     * @param binary    the binary deployed
+     * @param algorithm the name of the digest, one of the keys of {@link #bySidecarExtension()}
+     * @param remote    the hexadecimal digest given by the repository, ignored when null
+     * @throws IOException if the digests differ, so the transfer can be retried
+     */
+    public void verify(Binary binary, String algorithm, @CheckForNull String remote) throws IOException {
+        if (remote == null) {
+            return;
+        }
+        String local = bySidecarExtension().get(algorithm);
+        if (local == null) {
+            throw new IllegalArgumentException("Unknown digest " + algorithm);
+        }
+        if (!local.equalsIgnoreCase(remote.trim())) {
+            throw new IOException("The " + algorithm + " of " + binary.getName() + " in the repository is " + remote
+                + " but " + local + " was sent");
+        }
+    }
+}
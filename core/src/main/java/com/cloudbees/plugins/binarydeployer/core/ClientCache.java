@@ -0,0 +1,252 @@
+/*
+ * Copyright (c) 2017 CloudBees, Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.binarydeployer.core;
+
+import hudson.Util;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import javax.annotation.CheckForNull;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Shares the clients of a {@link Repository} between deployments, so connections, TLS sessions and thread pools are
+ * not created again for each build.
+ * <p>
+ * Clients are identified by their location, everything else they are configured with and their credentials: when the
+ * credentials change, a new client is created and the previous one is disposed once idle. The credentials are only
+ * kept as a digest keyed with a secret of this JVM, and only the location is logged.
+ * </p>
+ * <p>
+ * A client is never disposed while leased. Idle clients are disposed after a timeout, and the least recently used
+ * ones as soon as the cache holds more than its maximum size. The caches are evicted from a thread of their own, as
+ * they are also used on agents.
+ * </p>
+ *
+ * @param <C> the type of the clients
+ * @author Adrien Lecharpentier
+ */
+public final class ClientCache<C> {
+    private static final Logger log = Logger.getLogger(ClientCache.class.getCanonicalName());
+    private static final List<ClientCache<?>> caches = new CopyOnWriteArrayList<>();
+    private static final String DIGEST = "HmacSHA256";
+    /** Keys the digests of the credentials, so they cannot be guessed from the keys of the clients. */
+    private static final SecretKeySpec secret = newSecret();
+
+    static {
+        Executors.newSingleThreadScheduledExecutor(new NamingThreadFactory(new DaemonThreadFactory(),
+            "Binary Deployer idle clients eviction")).scheduleWithFixedDelay(ClientCache::evictAll, 1, 1,
+            TimeUnit.MINUTES);
+    }
+
+    private final String name;
+    private final int maxSize;
+    private final long idleTimeout;
+    private final Disposer<C> disposer;
+    private final LinkedHashMap<String, Entry<C>> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * @param name        the name of the cache, used in logs
+     * @param maxSize     the maximum number of idle clients kept
+     * @param idleTimeout the time, in milliseconds, after which an idle client is disposed
+     * @param disposer    releases the resources of a client
+     */
+    public ClientCache(String name, int maxSize, long idleTimeout, Disposer<C> disposer) {
+        this.name = name;
+        this.maxSize = maxSize;
+        this.idleTimeout = idleTimeout;
+        this.disposer = disposer;
+        caches.add(this);
+    }
+
+    /**
+     * Leases the client identified by its location, configuration and credentials, creating it if needed. The lease
+     * must be closed once the client is not used anymore.
+     *
+     * @param location      where the client connects to, used in logs
+     * @param configuration everything else the client is configured with
+     * @param credentials   the credentials of the client, null if it is anonymous
+     * @param factory       creates the client if there is none for the key
+     * @return the lease of the client
+     * @throws IOException if the client cannot be created
+     */
+    public Lease<C> acquire(String location, String configuration, @CheckForNull String credentials,
+                            Factory<C> factory) throws IOException {
+        String key = location + "|" + configuration + "|" + digest(credentials);
+        synchronized (this) {
+            Entry<C> entry = entries.get(key);
+            if (entry != null) {
+                entry.leases++;
+                return new Lease<>(this, entry);
+            }
+        }
+
+        // a slow creation must not hold the deployments to the other locations
+        log.fine("Creating " + name + " client for " + location);
+        C client = factory.create();
+        Entry<C> entry;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry == null) {
+                entry = new Entry<>(location, client);
+                entries.put(key, entry);
+                client = null;
+            }
+            entry.leases++;
+            evict();
+        }
+        if (client != null) {
+            // created at the same time by another deployment
+            dispose(location, client);
+        }
+        return new Lease<>(this, entry);
+    }
+
+    private static String digest(@CheckForNull String credentials) {
+        if (credentials == null) {
+            return "";
+        }
+        try {
+            Mac mac = Mac.getInstance(DIGEST);
+            mac.init(secret);
+            return Util.toHexString(mac.doFinal(credentials.getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(DIGEST + " is not available", e);
+        }
+    }
+
+    private static SecretKeySpec newSecret() {
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        return new SecretKeySpec(key, DIGEST);
+    }
+
+    private synchronized void release(Entry<C> entry) {
+        entry.leases--;
+        entry.lastUsed = System.currentTimeMillis();
+        evict();
+    }
+
+    /**
+     * Disposes the clients idle for longer than the timeout, then the least recently used idle ones while the cache
+     * is over its maximum size.
+     */
+    public synchronized void evict() {
+        long now = System.currentTimeMillis();
+        int excess = entries.size() - maxSize;
+        for (Iterator<Map.Entry<String, Entry<C>>> it = entries.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Entry<C>> entry = it.next();
+            if (entry.getValue().leases > 0) {
+                continue;
+            }
+            if (excess > 0 || now - entry.getValue().lastUsed > idleTimeout) {
+                it.remove();
+                excess--;
+                dispose(entry.getValue().location, entry.getValue().client);
+            }
+        }
+    }
+
+    private static void evictAll() {
+        for (ClientCache<?> cache : caches) {
+            try {
+                cache.evict();
+            } catch (RuntimeException e) {
+                // the next eviction must still happen
+                log.log(Level.WARNING, "Cannot evict the idle " + cache.name + " clients", e);
+            }
+        }
+    }
+
+    private void dispose(String location, C client) {
+        log.fine("Disposing " + name + " client for " + location);
+        try {
+            disposer.dispose(client);
+        } catch (IOException | RuntimeException e) {
+            log.log(Level.WARNING, "Cannot dispose " + name + " client for " + location, e);
+        }
+    }
+
+    public interface Factory<C> {
+        C create() throws IOException;
+    }
+
+    public interface Disposer<C> {
+        void dispose(C client) throws IOException;
+    }
+
+    private static final class Entry<C> {
+        private final String location;
+        private final C client;
+        private int leases;
+        private long lastUsed = System.currentTimeMillis();
+
+        private Entry(String location, C client) {
+            this.location = location;
+            this.client = client;
+        }
+    }
+
+    /**
+     * A client in use.
+     *
+     * @param <C> the type of the client
+     */
+    public static final class Lease<C> implements Closeable {
+        private final ClientCache<C> cache;
+        private final Entry<C> entry;
+        private boolean released;
+
+        private Lease(ClientCache<C> cache, Entry<C> entry) {
+            this.cache = cache;
+            this.entry = entry;
+        }
+
+        public C get() {
+            return entry.client;
+        }
+
+        @Override
+        public void close() {
+            if (!released) {
+                released = true;
+                cache.release(entry);
+            }
+        }
+    }
+}
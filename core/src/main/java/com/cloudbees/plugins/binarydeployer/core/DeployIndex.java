@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2017 CloudBees, Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.binarydeployer.core;
+
+import hudson.Util;
+import hudson.XmlFile;
+import hudson.model.Job;
+import jenkins.model.Jenkins;
+
+import javax.annotation.CheckForNull;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Records, for a job and a {@link Repository}, the size and the identity of the content of each {@link Binary}
+ * deployed.
+ * <p>
+ * It is used by incremental deployments to skip binaries which didn't change since they were last deployed.
+ * </p>
+ *
+ * @author Adrien Lecharpentier
+ */
+public class DeployIndex {
+    private static final Logger log = Logger.getLogger(DeployIndex.class.getCanonicalName());
+
+    private final String target;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private transient XmlFile file;
+
+    private DeployIndex(String target) {
+        this.target = target;
+    }
+
+    /**
+     * Loads the index of the job for the repository, or creates an empty one if the job never deployed there.
+     *
+     * @param job        the job deploying the binaries
+     * @param repository the repository the binaries are deployed to
+     * @return the index of the binaries deployed by the job to the repository
+     */
+    public static DeployIndex load(Job<?, ?> job, Repository repository) {
+        String target = repository.getTarget();
+        XmlFile file = new XmlFile(Jenkins.XSTREAM2,
+            new File(job.getRootDir(), "binary-deployer/" + Util.getDigestOf(target) + ".xml"));
+
+        DeployIndex index = null;
+        if (file.exists()) {
+            try {
+                index = (DeployIndex) file.read();
+            } catch (IOException | ClassCastException e) {
+                log.log(Level.WARNING, "Cannot read deployment index " + file + ", every binary will be deployed", e);
+            }
+        }
+        if (index == null || !target.equals(index.target)) {
+            index = new DeployIndex(target);
+        }
+        index.file = file;
+        return index;
+    }
+
+    public Entry get(String name) {
+        return entries.get(name);
+    }
+
+    public void put(String name, Entry entry) {
+        entries.put(name, entry);
+    }
+
+    public void save() throws IOException {
+        file.write(this);
+    }
+
+    /**
+     * Identifies the content of a deployed {@link Binary}, either by its SHA-256 digest, by the MD5 of its fingerprint
+     * or by its modification time. Entries identified differently never match.
+     */
+    public static final class Entry {
+        private final long size;
+        private final String sha256;
+        private final String md5;
+        private final long lastModified;
+
+        public Entry(long size, String sha256) {
+            this(size, sha256, null, 0);
+        }
+
+        private Entry(long size, String sha256, String md5, long lastModified) {
+            this.size = size;
+            this.sha256 = sha256;
+            this.md5 = md5;
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * @param size the size of the binary
+         * @param md5  the MD5 digest Jenkins recorded when it fingerprinted the binary
+         */
+        public static Entry fingerprinted(long size, String md5) {
+            return new Entry(size, null, md5, 0);
+        }
+
+        /**
+         * @param size         the size of the binary
+         * @param lastModified the modification time of the binary
+         */
+        public static Entry modified(long size, long lastModified) {
+            return new Entry(size, null, null, lastModified);
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        @CheckForNull
+        public String getSha256() {
+            return sha256;
+        }
+
+        @CheckForNull
+        public String getMd5() {
+            return md5;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Entry entry = (Entry) o;
+            return size == entry.size && lastModified == entry.lastModified && Objects.equals(sha256, entry.sha256)
+                && Objects.equals(md5, entry.md5);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(size, sha256, md5, lastModified);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2017 CloudBees, Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.binarydeployer.core;
+
+import com.google.common.collect.Sets;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The names of the binaries a step execution deployed, written as soon as they are, so the execution resumed after a
+ * restart of the master can skip them.
+ *
+ * @author Adrien Lecharpentier
+ * @see DeployReport#meter(Iterable, DeployJournal)
+ */
+final class DeployJournal implements Closeable {
+    private static final Logger log = Logger.getLogger(DeployJournal.class.getCanonicalName());
+
+    private final File file;
+    private Writer writer;
+
+    /**
+     * @param file the file the names of the deployed binaries are appended to
+     */
+    DeployJournal(File file) {
+        this.file = file;
+    }
+
+    synchronized void record(String name) {
+        try {
+            if (writer == null) {
+                Files.createDirectories(file.toPath().getParent());
+                writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                    StandardOpenOption.APPEND);
+            }
+            writer.write(name);
+            writer.write('\n');
+            writer.flush();
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Cannot record the deployment of " + name + " in " + file, e);
+        }
+    }
+
+    /**
+     * @return the names of the binaries recorded, including before the master restarted
+     * @throws IOException if the journal cannot be read
+     */
+    synchronized Set<String> read() throws IOException {
+        Set<String> names = Sets.newHashSet();
+        if (file.exists()) {
+            names.addAll(Files.readAllLines(file.toPath(), StandardCharsets.UTF_8));
+        }
+        return names;
+    }
+
+    /**
+     * Forgets the binaries recorded, once the deployment succeeded and won't be resumed.
+     */
+    synchronized void delete() {
+        close();
+        try {
+            Files.deleteIfExists(file.toPath());
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Cannot delete " + file, e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                log.log(Level.FINE, "Cannot close " + file, e);
+            }
+            writer = null;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2017 CloudBees, Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.binarydeployer.core;
+
+import com.google.common.collect.Lists;
+import org.jvnet.localizer.Localizable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The order the binaries are given to the {@link Repository}.
+ * <p>
+ * Any order but {@link #DISCOVERY} waits for the whole tree to be discovered before the first binary is deployed.
+ * Starting with the largest files lets a repository uploading in parallel finish with the small ones, instead of
+ * waiting for a large file started last.
+ * </p>
+ *
+ * @author Adrien Lecharpentier
+ */
+public enum DeployOrder {
+    DISCOVERY(Messages._binarydeployer_core_order_discovery()),
+    LARGEST_FIRST(Messages._binarydeployer_core_order_largestFirst()),
+    SMALLEST_FIRST(Messages._binarydeployer_core_order_smallestFirst()),
+    NAME(Messages._binarydeployer_core_order_name());
+
+    private final Localizable displayName;
+
+    DeployOrder(Localizable displayName) {
+        this.displayName = displayName;
+    }
+
+    public String getDisplayName() {
+        return displayName.toString();
+    }
+
+    /**
+     * The binaries are sorted when the result is iterated, so the time spent is part of the discovery. Errors raised
+     * while reading the length of the files are thrown as {@link UncheckedIOException}, like the errors of the
+     * discovery.
+     *
+     * @param binaries the binaries to deploy
+     * @return the same binaries, in this order
+     */
+    public Iterable<Binary> sort(final Iterable<Binary> binaries) {
+        if (this == DISCOVERY) {
+            return binaries;
+        }
+        return () -> sorted(binaries).iterator();
+    }
+
+    private List<Binary> sorted(Iterable<Binary> binaries) {
+        if (this == NAME) {
+            List<Binary> sorted = Lists.newArrayList(binaries);
+            sorted.sort(Comparator.comparing(Binary::getName));
+            return sorted;
+        }
+
+        // each length is read once, it can be a remote call
+        List<Sized> sized = Lists.newArrayList();
+        for (Binary binary : binaries) {
+            try {
+                sized.add(new Sized(binary, binary.getFile().length()));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        Comparator<Sized> bySize = Comparator.comparingLong(s -> s.length);
+        sized.sort(this == LARGEST_FIRST ? bySize.reversed() : bySize);
+        return Lists.transform(sized, s -> s.binary);
+    }
+
+    private static final class Sized {
+        private final Binary binary;
+        private final long length;
+
+        private Sized(Binary binary, long length) {
+            this.binary = binary;
+            this.length = length;
+        }
+    }
+}
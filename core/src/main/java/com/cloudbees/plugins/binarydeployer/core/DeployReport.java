@@ -0,0 +1,547 @@
+/*
+ * Copyright (c) 2017 CloudBees, Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.binarydeployer.core;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Lists;
+import hudson.model.Run;
+import jenkins.util.VirtualFile;
+
+import javax.annotation.CheckForNull;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects the metrics of the deployment of a run to a {@link Repository}.
+ * <p>
+ * The bytes and duration of each transfer are measured on the streams the repository opens, so every implementation
+ * is covered. The HTTP status, the number of retries and the success of a transfer can only be known by the repository,
+ * which reports them with {@link #status(Binary, int)}, {@link #retried(Binary)}, {@link #deployed(Binary)} and
+ * {@link #deduplicated(Binary)}.
+ * </p>
+ * <p>
+ * Once the deployment is finished, only the aggregates and the most notable transfers, the failed and the slowest
+ * ones, are kept with the run, in memory and in its record. The transfer of every binary would make the record of a
+ * large deployment as large as its list of files, and it is loaded with every build.
+ * </p>
+ *
+ * @author Adrien Lecharpentier
+ */
+public class DeployReport implements Serializable {
+    private static final long serialVersionUID = 1L;
+    /** The number of transfers kept with the run once the deployment is finished. */
+    static final int NOTABLE_TRANSFERS = 100;
+
+    private final String target;
+    /** The transfers of the deployment in progress, left out of the run record and forgotten once it finishes. */
+    private Map<String, Transfer> live = new ConcurrentHashMap<>();
+    /** The transfers of every binary, as recorded before the aggregates were. */
+    @Deprecated
+    private Map<String, Transfer> transfers;
+    private volatile List<Transfer> notable = Collections.emptyList();
+    private volatile int fileCount;
+    private volatile int deduplicatedCount;
+    private volatile long totalBytes;
+    /** The duration of the transfers at each percentile, from 0 to 100. */
+    private volatile long[] latencyMillis;
+    private final AtomicLong discoveryNanos = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    // primitives, so the reports recorded before they existed are read back as not measured
+    private volatile int peakOpenFiles;
+    private volatile long peakInFlightBytes;
+
+    public DeployReport(String target) {
+        this.target = target;
+    }
+
+    /**
+     * @param run        the run deploying the binaries
+     * @param repository the repository the binaries are deployed to
+     * @return the report of the deployment, never null
+     */
+    public static DeployReport of(Run<?, ?> run, Repository repository) {
+        return DeployReportAction.report(run, repository.getTarget());
+    }
+
+    protected Object readResolve() {
+        if (live == null) {
+            live = new ConcurrentHashMap<>();
+        }
+        if (notable == null) {
+            notable = Collections.emptyList();
+        }
+        if (transfers != null) {
+            live.putAll(transfers);
+            transfers = null;
+            summarize();
+        }
+        return this;
+    }
+
+    public String getTarget() {
+        return target;
+    }
+
+    /**
+     * Wraps the binaries so the time spent discovering them and the bytes read from their files are recorded.
+     *
+     * @param binaries the binaries to deploy
+     * @return the same binaries, metered
+     */
+    public Iterable<Binary> meter(final Iterable<Binary> binaries) {
+        return meter(binaries, null);
+    }
+
+    /**
+     * @param binaries the binaries to deploy
+     * @param journal  the journal the binaries are recorded in once deployed, or null if they aren't
+     * @return the same binaries, metered
+     */
+    Iterable<Binary> meter(final Iterable<Binary> binaries, @CheckForNull final DeployJournal journal) {
+        return () -> new AbstractIterator<Binary>() {
+            private final Iterator<Binary> delegate = binaries.iterator();
+
+            @Override
+            protected Binary computeNext() {
+                long start = System.nanoTime();
+                try {
+                    if (!delegate.hasNext()) {
+                        return endOfData();
+                    }
+                    Binary binary = delegate.next();
+                    Transfer transfer = transfer(binary.getName());
+                    if (journal != null) {
+                        transfer.journal = journal;
+                    }
+                    return binary.withFile(new MeteredFile(binary.getFile(), transfer));
+                } finally {
+                    discoveryNanos.addAndGet(System.nanoTime() - start);
+                }
+            }
+        };
+    }
+
+    /**
+     * Records the time spent in the whole deployment.
+     *
+     * @param nanos the duration of the deployment, in nanoseconds
+     */
+    public void finished(long nanos) {
+        totalNanos.addAndGet(nanos);
+        summarize();
+    }
+
+    /**
+     * Adds the transfers of the deployment which just finished to what is kept with the run, and forgets them, so a
+     * large deployment doesn't keep a transfer per binary in memory for as long as the run is loaded.
+     */
+    private synchronized void summarize() {
+        List<Transfer> finished = Lists.newArrayList(live.values());
+        if (finished.isEmpty()) {
+            return;
+        }
+        int previousCount = fileCount;
+        fileCount += finished.size();
+        for (Transfer transfer : finished) {
+            totalBytes += transfer.bytes;
+            if (transfer.deduplicated) {
+                deduplicatedCount++;
+            }
+        }
+        latencyMillis = percentiles(latencyMillis, previousCount, finished);
+
+        // the failed transfers first, then the slowest ones, of this deployment and of the previous ones
+        List<Transfer> all = Lists.newArrayList(notable);
+        all.addAll(finished);
+        all.sort(Comparator.comparingLong(t -> t.durationNanos));
+        List<Transfer> kept = Lists.newArrayList();
+        for (Transfer transfer : Lists.reverse(all)) {
+            if (!transfer.deployed && kept.size() < NOTABLE_TRANSFERS) {
+                kept.add(transfer);
+            }
+        }
+        for (Transfer transfer : Lists.reverse(all)) {
+            if (transfer.deployed && kept.size() < NOTABLE_TRANSFERS) {
+                kept.add(transfer);
+            }
+        }
+        notable = kept;
+        live.clear();
+    }
+
+    /**
+     * Each percentile of a previous deployment stands for a hundredth of its transfers, so the result is exact for a
+     * single deployment and an approximation when the same target is deployed to several times in a run.
+     *
+     * @param previous      the percentiles of the previous deployments, or null if there were none
+     * @param previousCount the number of transfers the previous percentiles were computed from
+     * @param transfers     the transfers of the deployment which just finished
+     * @return the durations at each percentile, from 0 to 100, of all the transfers
+     */
+    private static long[] percentiles(@CheckForNull long[] previous, int previousCount, List<Transfer> transfers) {
+        List<long[]> weighted = Lists.newArrayList();
+        for (Transfer transfer : transfers) {
+            weighted.add(new long[]{transfer.getDurationMillis(), 101});
+        }
+        if (previous != null) {
+            for (long millis : previous) {
+                weighted.add(new long[]{millis, previousCount});
+            }
+        }
+        weighted.sort(Comparator.comparingLong(w -> w[0]));
+
+        // weights are counted in hundred-and-firsts of a transfer, so both kinds are integers
+        long count = transfers.size() + (previous == null ? 0 : previousCount);
+        long[] percentiles = new long[101];
+        long cumulated = 0;
+        int index = -1;
+        for (int percentile = 0; percentile <= 100; percentile++) {
+            long rank = 101 * Math.max(1, (percentile * count + 99) / 100);
+            while (cumulated < rank && index < weighted.size() - 1) {
+                cumulated += weighted.get(++index)[1];
+            }
+            percentiles[percentile] = weighted.get(index)[0];
+        }
+        return percentiles;
+    }
+
+    /**
+     * Records the most the deployment had open at once on the master.
+     *
+     * @param usage the usage of the memory budget by the deployment
+     */
+    public synchronized void memory(MemoryBudget.Usage usage) {
+        peakOpenFiles = Math.max(peakOpenFiles, usage.getPeakOpenFiles());
+        peakInFlightBytes = Math.max(peakInFlightBytes, usage.getPeakInFlightBytes());
+    }
+
+    /**
+     * Adds the transfers of a report produced somewhere else, for example on an agent, to the deployment in progress.
+     * The total duration isn't added, as it is measured by the caller waiting for the other report.
+     *
+     * @param other the report to add to this one, which must not be {@link #finished(long) finished}
+     */
+    public void merge(DeployReport other) {
+        live.putAll(other.live);
+        discoveryNanos.addAndGet(other.discoveryNanos.get());
+    }
+
+    public void status(Binary binary, int status) {
+        transfer(binary.getName()).status = status;
+    }
+
+    public void retried(Binary binary) {
+        transfer(binary.getName()).retries.incrementAndGet();
+    }
+
+    /**
+     * Records the binary was successfully deployed, so it isn't deployed again if the rest of the deployment fails.
+     *
+     * @param binary the binary deployed
+     */
+    public void deployed(Binary binary) {
+        Transfer transfer = transfer(binary.getName());
+        transfer.deployed = true;
+        DeployJournal journal = transfer.journal;
+        if (journal != null) {
+            journal.record(binary.getName());
+        }
+    }
+
+    /**
+     * Records the content of the binary was already in the repository, so it was deployed without being transferred.
+     *
+     * @param binary the binary deployed
+     */
+    public void deduplicated(Binary binary) {
+        transfer(binary.getName()).deduplicated = true;
+        deployed(binary);
+    }
+
+    /**
+     * @param name the name of a binary
+     * @return whether the binary was deployed by the deployment in progress
+     */
+    public boolean isDeployed(String name) {
+        Transfer transfer = live.get(name);
+        return transfer != null && transfer.deployed;
+    }
+
+    private Transfer transfer(String name) {
+        return live.computeIfAbsent(name, Transfer::new);
+    }
+
+    /**
+     * @return a one line summary of the deployment, for the build log
+     */
+    public String getSummary() {
+        String summary = String.format("Deployed %d files (%.2f MB) in %d ms, %.2f MB/s",
+            getFileCount(), getTotalBytes() / 1048576.0, getTotalMillis(), getThroughput());
+        if (getDeduplicatedCount() > 0) {
+            summary += String.format(", %d already stored", getDeduplicatedCount());
+        }
+        if (getPeakOpenFiles() == 0) {
+            return summary;
+        }
+        return summary + String.format(", at most %d files (%.2f MB) open at once",
+            getPeakOpenFiles(), getPeakInFlightBytes() / 1048576.0);
+    }
+
+    /**
+     * @return the transfers of the deployment in progress, or the notable ones once it is finished, by name
+     */
+    public List<Transfer> getTransfers() {
+        List<Transfer> sorted = Lists.newArrayList(live.isEmpty() ? notable : live.values());
+        sorted.sort(Comparator.comparing(Transfer::getName));
+        return sorted;
+    }
+
+    /**
+     * @return whether {@link #getTransfers()} only lists some of the transfers
+     */
+    public boolean isPartial() {
+        return live.isEmpty() ? notable.size() < fileCount : fileCount > 0;
+    }
+
+    public int getFileCount() {
+        return fileCount + live.size();
+    }
+
+    /**
+     * @return the number of binaries whose content was already in the repository
+     */
+    public int getDeduplicatedCount() {
+        int count = deduplicatedCount;
+        for (Transfer transfer : live.values()) {
+            if (transfer.deduplicated) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public long getTotalBytes() {
+        long bytes = totalBytes;
+        for (Transfer transfer : live.values()) {
+            bytes += transfer.bytes;
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the most files the deployment read at once on the master, 0 if it wasn't measured
+     */
+    public int getPeakOpenFiles() {
+        return peakOpenFiles;
+    }
+
+    /**
+     * @return the largest sum of the sizes of the files the deployment read at once on the master
+     */
+    public long getPeakInFlightBytes() {
+        return peakInFlightBytes;
+    }
+
+    public long getDiscoveryMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(discoveryNanos.get());
+    }
+
+    public long getUploadMillis() {
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(totalNanos.get() - discoveryNanos.get()));
+    }
+
+    public long getTotalMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(totalNanos.get());
+    }
+
+    /**
+     * @return the overall throughput of the deployment, in MB/s
+     */
+    public double getThroughput() {
+        long millis = getTotalMillis();
+        return millis == 0 ? 0 : getTotalBytes() / 1048576.0 / (millis / 1000.0);
+    }
+
+    /**
+     * @param percentile the percentile, from 0 to 100
+     * @return the duration of the transfers at this percentile, including those of the deployment in progress
+     */
+    public long getLatencyMillis(int percentile) {
+        List<Transfer> inProgress = Lists.newArrayList(live.values());
+        long[] latencies = inProgress.isEmpty() ? latencyMillis : percentiles(latencyMillis, fileCount, inProgress);
+        return latencies == null ? 0 : latencies[Math.max(0, Math.min(percentile, 100))];
+    }
+
+    /**
+     * The transfer of a single {@link Binary}.
+     */
+    public static final class Transfer implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String name;
+        private volatile long bytes;
+        private volatile long durationNanos;
+        private volatile int status;
+        private volatile boolean deployed;
+        private volatile boolean deduplicated;
+        private final AtomicInteger retries = new AtomicInteger();
+        /** The journal of the step execution deploying the binary, if any. */
+        private transient volatile DeployJournal journal;
+
+        private Transfer(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getDurationMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(durationNanos);
+        }
+
+        /**
+         * @return the throughput of the transfer, in MB/s
+         */
+        public double getThroughput() {
+            return durationNanos == 0 ? 0 : bytes / 1048576.0 / (durationNanos / 1e9);
+        }
+
+        /**
+         * @return whether the binary was deployed, a transfer can be recorded for a failed attempt
+         */
+        public boolean isDeployed() {
+            return deployed;
+        }
+
+        /**
+         * @return whether the content of the binary was already in the repository, so it wasn't transferred
+         */
+        public boolean isDeduplicated() {
+            return deduplicated;
+        }
+
+        public int getRetries() {
+            return retries.get();
+        }
+
+        /**
+         * @return the HTTP status of the transfer, or 0 if the repository doesn't report it
+         */
+        public int getStatus() {
+            return status;
+        }
+
+        private synchronized void transferred(long bytes, long durationNanos) {
+            this.bytes = bytes;
+            this.durationNanos += durationNanos;
+        }
+    }
+
+    /**
+     * Measures the streams opened on a file, the last one being the successful transfer.
+     */
+    private static final class MeteredFile extends ForwardingFile {
+        private final Transfer transfer;
+
+        private MeteredFile(VirtualFile file, Transfer transfer) {
+            super(file);
+            this.transfer = transfer;
+        }
+
+        @Override
+        public InputStream open() throws IOException {
+            final long start = System.nanoTime();
+            return new FilterInputStream(file.open()) {
+                private long count;
+                private boolean closed;
+
+                @Override
+                public int read() throws IOException {
+                    int read = super.read();
+                    if (read != -1) count++;
+                    return read;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int read = super.read(b, off, len);
+                    if (read > 0) count += read;
+                    return read;
+                }
+
+                @Override
+                public void close() throws IOException {
+                    super.close();
+                    if (!closed) {
+                        closed = true;
+                        transfer.transferred(count, System.nanoTime() - start);
+                    }
+                }
+            };
+        }
+
+        @Override
+        LocalCopy openCopy() throws IOException {
+            LocalCopy copy = copyOf(file);
+            if (copy == null) {
+                return null;
+            }
+            final long start = System.nanoTime();
+            return new LocalCopy(copy) {
+                private long count;
+                private boolean closed;
+
+                @Override
+                public void transferred(long bytes) throws IOException {
+                    super.transferred(bytes);
+                    count += bytes;
+                }
+
+                @Override
+                public void close() throws IOException {
+                    super.close();
+                    if (!closed) {
+                        closed = true;
+                        transfer.transferred(count, System.nanoTime() - start);
+                    }
+                }
+            };
+        }
+    }
+}
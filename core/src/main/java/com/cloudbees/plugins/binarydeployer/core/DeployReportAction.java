@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2017 CloudBees, Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.binarydeployer.core;
+
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.model.Run;
+import jenkins.model.RunAction2;
+
+import javax.annotation.CheckForNull;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Attaches the {@link DeployReport} of each repository a run deployed to.
+ *
+ * @author Adrien Lecharpentier
+ */
+public class DeployReportAction implements RunAction2 {
+    private static final Object lock = new Object();
+
+    private final List<DeployReport> reports = new ArrayList<>();
+    private transient Run<?, ?> run;
+
+    @Initializer(before = InitMilestone.PLUGINS_STARTED)
+    public static void omitLiveTransfers() {
+        // summarized in the run record, see DeployReport
+        Run.XSTREAM2.omitField(DeployReport.class, "live");
+    }
+
+    static DeployReport report(Run<?, ?> run, String target) {
+        synchronized (lock) {
+            DeployReportAction action = run.getAction(DeployReportAction.class);
+            if (action == null) {
+                action = new DeployReportAction();
+                run.addAction(action);
+            }
+            return action.report(target);
+        }
+    }
+
+    /**
+     * @param run       the run deploying the binaries
+     * @param execution the identifier of the step execution deploying them
+     * @return the file journaling the binaries the step execution deployed
+     */
+    static File journal(Run<?, ?> run, String execution) {
+        return new File(run.getRootDir(), "binary-deployer/" + execution + ".deployed");
+    }
+
+    private synchronized DeployReport report(String target) {
+        for (DeployReport report : reports) {
+            if (report.getTarget().equals(target)) {
+                return report;
+            }
+        }
+        DeployReport report = new DeployReport(target);
+        reports.add(report);
+        return report;
+    }
+
+    public synchronized List<DeployReport> getReports() {
+        return new ArrayList<>(reports);
+    }
+
+    public Run<?, ?> getRun() {
+        return run;
+    }
+
+    @Override
+    public void onAttached(Run<?, ?> r) {
+        this.run = r;
+    }
+
+    @Override
+    public void onLoad(Run<?, ?> r) {
+        this.run = r;
+    }
+
+    @CheckForNull
+    @Override
+    public String getIconFileName() {
+        return "graph.png";
+    }
+
+    @CheckForNull
+    @Override
+    public String getDisplayName() {
+        return Messages.binarydeployer_core_report_displayName();
+    }
+
+    @CheckForNull
+    @Override
+    public String getUrlName() {
+        return "binary-deployer";
+    }
+}
@@ -0,0 +1,353 @@
+/*
+ * Copyright (c) 2017 CloudBees, Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.binarydeployer.core;
+
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import hudson.Extension;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.util.FormValidation;
+import jenkins.model.GlobalConfiguration;
+import jenkins.util.VirtualFile;
+import net.sf.json.JSONObject;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.StaplerRequest;
+
+import javax.annotation.Nonnull;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Schedules the deployments of all the builds of the master, so they cannot saturate its network.
+ * <p>
+ * A deployment waits for a permit before sending any file. Permits are limited globally and per repository, and given
+ * to the jobs in turn, so a job deploying many times cannot starve the others. The files read while a permit is held
+ * share a bandwidth limit.
+ * </p>
+ *
+ * @author Adrien Lecharpentier
+ */
+@Extension
+public class DeployScheduler extends GlobalConfiguration {
+    private static final Logger log = Logger.getLogger(DeployScheduler.class.getCanonicalName());
+
+    private int maxDeployments;
+    private int maxDeploymentsPerRepository;
+    private long bandwidthLimit;
+
+    private final transient Object lock = new Object();
+    /**
+     * Waiting deployments per job, the job served last being at the end.
+     */
+    private final transient LinkedHashMap<String, Deque<Permit>> queues = new LinkedHashMap<>();
+    private final transient Map<String, Integer> running = Maps.newHashMap();
+    private transient int runningTotal;
+    private transient volatile TokenBucket bandwidth;
+
+    public DeployScheduler() {
+        load();
+        updateBandwidth();
+    }
+
+    /**
+     * @return the scheduler of the master
+     */
+    public static DeployScheduler get() {
+        return GlobalConfiguration.all().get(DeployScheduler.class);
+    }
+
+    /**
+     * @return the number of deployments running at the same time, 0 for no limit
+     */
+    public int getMaxDeployments() {
+        return maxDeployments;
+    }
+
+    @DataBoundSetter
+    public void setMaxDeployments(int maxDeployments) {
+        this.maxDeployments = Math.max(0, maxDeployments);
+    }
+
+    /**
+     * @return the number of deployments running at the same time to the same repository, 0 for no limit
+     */
+    public int getMaxDeploymentsPerRepository() {
+        return maxDeploymentsPerRepository;
+    }
+
+    @DataBoundSetter
+    public void setMaxDeploymentsPerRepository(int maxDeploymentsPerRepository) {
+        this.maxDeploymentsPerRepository = Math.max(0, maxDeploymentsPerRepository);
+    }
+
+    /**
+     * @return the KB per second all the deployments can read, 0 for no limit
+     */
+    public long getBandwidthLimit() {
+        return bandwidthLimit;
+    }
+
+    @DataBoundSetter
+    public void setBandwidthLimit(long bandwidthLimit) {
+        this.bandwidthLimit = Math.max(0, bandwidthLimit);
+        updateBandwidth();
+    }
+
+    private void updateBandwidth() {
+        bandwidth = bandwidthLimit > 0 ? new TokenBucket(bandwidthLimit * 1024) : null;
+    }
+
+    @Override
+    public boolean configure(StaplerRequest req, JSONObject json) throws FormException {
+        req.bindJSON(this, json);
+        save();
+        // raised limits let waiting deployments start right away
+        synchronized (lock) {
+            dispatch();
+        }
+        return true;
+    }
+
+    public FormValidation doCheckMaxDeployments(@QueryParameter String value) {
+        return FormValidation.validateNonNegativeInteger(value);
+    }
+
+    public FormValidation doCheckMaxDeploymentsPerRepository(@QueryParameter String value) {
+        return FormValidation.validateNonNegativeInteger(value);
+    }
+
+    public FormValidation doCheckBandwidthLimit(@QueryParameter String value) {
+        return FormValidation.validateNonNegativeInteger(value);
+    }
+
+    /**
+     * Waits until the run can deploy to the repository. The time spent waiting is printed in the build log.
+     *
+     * @param run        the run deploying
+     * @param repository the repository the run deploys to
+     * @param listener   the listener of the run
+     * @return the permit to deploy, to close once the deployment is done
+     * @throws InterruptedException if the run is aborted while waiting
+     */
+    @Nonnull
+    public Permit acquire(Run<?, ?> run, Repository repository, TaskListener listener) throws InterruptedException {
+        Permit permit = new Permit(run.getParent().getFullName(), repository.getTarget());
+        long start = System.nanoTime();
+        synchronized (lock) {
+            Deque<Permit> queue = queues.get(permit.job);
+            if (queue == null) {
+                queue = new ArrayDeque<>();
+                queues.put(permit.job, queue);
+            }
+            queue.add(permit);
+            dispatch();
+            try {
+                while (!permit.granted) {
+                    lock.wait();
+                }
+            } catch (InterruptedException e) {
+                if (permit.granted) {
+                    release(permit);
+                } else {
+                    remove(permit);
+                }
+                throw e;
+            }
+        }
+        long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        listener.getLogger().println("Waited " + waited + " ms in the deployment queue of " + permit.target);
+        log.fine(permit.job + " waited " + waited + " ms to deploy to " + permit.target);
+        return permit;
+    }
+
+    /**
+     * Gives permits to the waiting deployments while there are slots, one job at a time. Must hold the lock.
+     */
+    private void dispatch() {
+        boolean granted = false;
+        boolean progress = true;
+        while (progress && hasSlot()) {
+            progress = false;
+            for (String job : Lists.newArrayList(queues.keySet())) {
+                if (!hasSlot()) {
+                    break;
+                }
+                Deque<Permit> queue = queues.get(job);
+                Permit permit = Iterables.find(queue, p -> hasSlot(p.target), null);
+                if (permit == null) {
+                    continue;
+                }
+                queue.remove(permit);
+                permit.granted = true;
+                runningTotal++;
+                running.merge(permit.target, 1, Integer::sum);
+                progress = granted = true;
+
+                // the job goes after all the others
+                queues.remove(job);
+                if (!queue.isEmpty()) {
+                    queues.put(job, queue);
+                }
+            }
+        }
+        if (granted) {
+            lock.notifyAll();
+        }
+    }
+
+    private boolean hasSlot() {
+        return maxDeployments <= 0 || runningTotal < maxDeployments;
+    }
+
+    private boolean hasSlot(String target) {
+        return maxDeploymentsPerRepository <= 0
+            || running.getOrDefault(target, 0) < maxDeploymentsPerRepository;
+    }
+
+    private void remove(Permit permit) {
+        Deque<Permit> queue = queues.get(permit.job);
+        if (queue != null && queue.remove(permit) && queue.isEmpty()) {
+            queues.remove(permit.job);
+        }
+    }
+
+    private void release(Permit permit) {
+        runningTotal--;
+        running.computeIfPresent(permit.target, (target, count) -> count > 1 ? count - 1 : null);
+        dispatch();
+    }
+
+    /**
+     * The right to deploy to a repository, until closed.
+     */
+    public final class Permit implements AutoCloseable {
+        private final String job;
+        private final String target;
+        private boolean granted;
+        private boolean closed;
+
+        private Permit(String job, String target) {
+            this.job = job;
+            this.target = target;
+        }
+
+        /**
+         * Wraps the binaries so reading their files consumes the bandwidth shared by all deployments.
+         *
+         * @param binaries the binaries to deploy
+         * @return the same binaries, throttled
+         */
+        public Iterable<Binary> throttle(final Iterable<Binary> binaries) {
+            return () -> {
+                final Iterator<Binary> delegate = binaries.iterator();
+                return new Iterator<Binary>() {
+                    @Override
+                    public boolean hasNext() {
+                        return delegate.hasNext();
+                    }
+
+                    @Override
+                    public Binary next() {
+                        Binary binary = delegate.next();
+                        return binary.withFile(new ThrottledFile(binary.getFile()));
+                    }
+                };
+            };
+        }
+
+        @Override
+        public void close() {
+            synchronized (lock) {
+                if (granted && !closed) {
+                    closed = true;
+                    release(this);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a file within the bandwidth limit, as configured when each read happens.
+     */
+    private final class ThrottledFile extends ForwardingFile {
+        private ThrottledFile(VirtualFile file) {
+            super(file);
+        }
+
+        @Override
+        public InputStream open() throws IOException {
+            return new FilterInputStream(file.open()) {
+                @Override
+                public int read() throws IOException {
+                    int read = super.read();
+                    if (read != -1) take(1);
+                    return read;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int read = super.read(b, off, len);
+                    if (read > 0) take(read);
+                    return read;
+                }
+            };
+        }
+
+        @Override
+        LocalCopy openCopy() throws IOException {
+            LocalCopy copy = copyOf(file);
+            return copy == null ? null : new LocalCopy(copy) {
+                @Override
+                public void transferred(long bytes) throws IOException {
+                    super.transferred(bytes);
+                    take(bytes);
+                }
+            };
+        }
+
+        private void take(long bytes) throws InterruptedIOException {
+            TokenBucket bucket = bandwidth;
+            if (bucket == null) {
+                return;
+            }
+            try {
+                bucket.take(bytes);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while throttling " + file.getName());
+            }
+        }
+    }
+}
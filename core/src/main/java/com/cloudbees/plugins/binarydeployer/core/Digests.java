@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2017 CloudBees, Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.binarydeployer.core;
+
+import hudson.Util;
+import jenkins.util.VirtualFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Computes the digests used to identify the content of a {@link Binary}.
+ *
+ * @author Adrien Lecharpentier
+ */
+public final class Digests {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private Digests() {
+    }
+
+    /**
+     * @param file the file to read
+     * @return the hexadecimal SHA-256 digest of the file content
+     * @throws IOException if the file cannot be read
+     */
+    public static String sha256(VirtualFile file) throws IOException {
+        return digest(file, "SHA-256");
+    }
+
+    /**
+     * @param file      the file to read
+     * @param algorithm the name of the digest algorithm, for example {@code MD5}
+     * @return the hexadecimal digest of the file content
+     * @throws IOException if the file cannot be read
+     */
+    static String digest(VirtualFile file, String algorithm) throws IOException {
+        MessageDigest digest = newDigest(algorithm);
+        try (InputStream input = file.open()) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return Util.toHexString(digest.digest());
+    }
+
+    static MessageDigest newDigest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(algorithm + " is not supported by this JVM", e);
+        }
+    }
+}
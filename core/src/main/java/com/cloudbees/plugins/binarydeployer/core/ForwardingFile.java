@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2017 CloudBees, Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.binarydeployer.core;
+
+import jenkins.util.VirtualFile;
+
+import javax.annotation.CheckForNull;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+
+/**
+ * A {@link VirtualFile} forwarding every call to another one, so a wrapper only overrides what it changes.
+ *
+ * @author Adrien Lecharpentier
+ */
+abstract class ForwardingFile extends VirtualFile {
+    protected final VirtualFile file;
+
+    ForwardingFile(VirtualFile file) {
+        this.file = file;
+    }
+
+    @Override
+    public InputStream open() throws IOException {
+        return file.open();
+    }
+
+    /**
+     * A wrapper changing what is read from {@link #open()} must override this method and wrap the copy of
+     * {@link #copyOf(VirtualFile)} like it wraps the stream, or leave the copy disabled.
+     *
+     * @return the copy of the content, or null if it must be read from {@link #open()}
+     * @throws IOException if the copy cannot be started
+     * @see Binary#copyLocally()
+     */
+    @CheckForNull
+    LocalCopy openCopy() throws IOException {
+        return null;
+    }
+
+    /**
+     * @return the copy of the content of a wrapped file, or null if it must be read from its stream
+     */
+    @CheckForNull
+    static LocalCopy copyOf(VirtualFile file) throws IOException {
+        return file instanceof ForwardingFile ? ((ForwardingFile) file).openCopy() : LocalCopy.of(file);
+    }
+
+    @Override
+    public String getName() {
+        return file.getName();
+    }
+
+    @Override
+    public URI toURI() {
+        return file.toURI();
+    }
+
+    @Override
+    public VirtualFile getParent() {
+        return file.getParent();
+    }
+
+    @Override
+    public boolean isDirectory() throws IOException {
+        return file.isDirectory();
+    }
+
+    @Override
+    public boolean isFile() throws IOException {
+        return file.isFile();
+    }
+
+    @Override
+    public boolean exists() throws IOException {
+        return file.exists();
+    }
+
+    @Override
+    public VirtualFile[] list() throws IOException {
+        return file.list();
+    }
+
+    @Override
+    public String[] list(String glob) throws IOException {
+        return file.list(glob);
+    }
+
+    @Override
+    public VirtualFile child(String name) {
+        return file.child(name);
+    }
+
+    @Override
+    public long length() throws IOException {
+        return file.length();
+    }
+
+    @Override
+    public long lastModified() throws IOException {
+        return file.lastModified();
+    }
+
+    @Override
+    public boolean canRead() throws IOException {
+        return file.canRead();
+    }
+}
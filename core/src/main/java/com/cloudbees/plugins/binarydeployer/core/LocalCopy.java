@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2017 CloudBees, Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.binarydeployer.core;
+
+import jenkins.util.VirtualFile;
+
+import javax.annotation.CheckForNull;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+
+/**
+ * A copy of the content of a {@link Binary} done without reading the stream of its file, for example by the operating
+ * system with {@link java.nio.channels.FileChannel#transferTo}.
+ * <p>
+ * The wrappers of the file, measuring, throttling or counting it in the memory budget of the deployment, wrap the copy
+ * like they wrap the stream: the caller reports each chunk once it is copied, as a read would, and closes the copy once
+ * it is done or failed.
+ * </p>
+ *
+ * @author Adrien Lecharpentier
+ * @see Binary#copyLocally()
+ */
+public class LocalCopy implements Closeable {
+    private final File file;
+    @CheckForNull
+    private final LocalCopy copy;
+
+    private LocalCopy(File file) {
+        this.file = file;
+        this.copy = null;
+    }
+
+    /**
+     * @param copy the copy this one wraps
+     */
+    LocalCopy(LocalCopy copy) {
+        this.file = copy.file;
+        this.copy = copy;
+    }
+
+    /**
+     * @return the copy of the file, or null if its content isn't on the local disk
+     */
+    @CheckForNull
+    static LocalCopy of(VirtualFile file) throws IOException {
+        URI uri = file.toURI();
+        if (uri == null || !"file".equals(uri.getScheme())) {
+            return null;
+        }
+        File local = new File(uri);
+        return local.isFile() ? new LocalCopy(local) : null;
+    }
+
+    /**
+     * @return the file on the local disk holding the content of the binary
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Can block, for example while the copy is throttled.
+     *
+     * @param bytes the number of bytes just copied
+     * @throws IOException if the copy must stop
+     */
+    public void transferred(long bytes) throws IOException {
+        if (copy != null) {
+            copy.transferred(bytes);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (copy != null) {
+            copy.close();
+        }
+    }
+}
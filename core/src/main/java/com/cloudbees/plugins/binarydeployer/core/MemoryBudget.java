@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2017 CloudBees, Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.binarydeployer.core;
+
+import com.google.common.collect.Iterables;
+import hudson.Extension;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import jenkins.util.VirtualFile;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import javax.annotation.Nonnull;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.Serializable;
+import java.util.logging.Logger;
+
+/**
+ * Bounds what a deployment to a {@link Repository} keeps open on the master: the number of files read at the same
+ * time, and the sum of their sizes.
+ * <p>
+ * A repository may buffer what it reads from a file until the transfer is done, so the size of the open files is the
+ * memory a deployment can pin. Opening a file waits until the deployment is back within the budget, which holds the
+ * repository back instead of failing it. A file larger than the whole budget is read alone.
+ * </p>
+ * <p>
+ * The budget is only released when the streams are closed, so a repository must close every stream it opens.
+ * </p>
+ *
+ * @author Adrien Lecharpentier
+ */
+public class MemoryBudget extends AbstractDescribableImpl<MemoryBudget> implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final Logger log = Logger.getLogger(MemoryBudget.class.getCanonicalName());
+
+    /**
+     * Doesn't limit anything, but still measures the peak usage.
+     */
+    public static final MemoryBudget NONE = new MemoryBudget(0, 0);
+
+    private final int maxOpenFiles;
+    private final int maxInFlightMegabytes;
+
+    /**
+     * @param maxOpenFiles         the number of files read at the same time, or 0 to not limit them
+     * @param maxInFlightMegabytes the sum of the sizes of the files read at the same time, in MB, or 0 to not limit it
+     */
+    @DataBoundConstructor
+    public MemoryBudget(int maxOpenFiles, int maxInFlightMegabytes) {
+        this.maxOpenFiles = Math.max(0, maxOpenFiles);
+        this.maxInFlightMegabytes = Math.max(0, maxInFlightMegabytes);
+    }
+
+    public int getMaxOpenFiles() {
+        return maxOpenFiles;
+    }
+
+    public int getMaxInFlightMegabytes() {
+        return maxInFlightMegabytes;
+    }
+
+    /**
+     * @return the usage of a new deployment, which doesn't share the budget with any other
+     */
+    public Usage start() {
+        return new Usage();
+    }
+
+    /**
+     * What a deployment has open, and the most it had at once.
+     */
+    public final class Usage {
+        private final long maxInFlightBytes = maxInFlightMegabytes * 1048576L;
+        private int openFiles;
+        private long inFlightBytes;
+        private int peakOpenFiles;
+        private long peakInFlightBytes;
+
+        private Usage() {
+        }
+
+        /**
+         * Wraps the binaries so opening their files waits within the budget.
+         *
+         * @param binaries the binaries to deploy
+         * @return the same binaries, limited
+         */
+        public Iterable<Binary> limit(Iterable<Binary> binaries) {
+            return Iterables.transform(binaries, binary -> binary.withFile(new BudgetedFile(binary.getFile())));
+        }
+
+        public synchronized int getPeakOpenFiles() {
+            return peakOpenFiles;
+        }
+
+        public synchronized long getPeakInFlightBytes() {
+            return peakInFlightBytes;
+        }
+
+        private synchronized void acquire(String name, long bytes) throws InterruptedIOException {
+            boolean waited = false;
+            while (!fits(bytes)) {
+                if (!waited) {
+                    waited = true;
+                    log.fine("Waiting for the memory budget to open " + name);
+                }
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the memory budget to open " + name);
+                }
+            }
+            openFiles++;
+            inFlightBytes += bytes;
+            peakOpenFiles = Math.max(peakOpenFiles, openFiles);
+            peakInFlightBytes = Math.max(peakInFlightBytes, inFlightBytes);
+        }
+
+        private boolean fits(long bytes) {
+            if (maxOpenFiles > 0 && openFiles >= maxOpenFiles) {
+                return false;
+            }
+            // a file larger than the budget gets it all, instead of waiting forever
+            return maxInFlightBytes == 0 || openFiles == 0 || inFlightBytes + bytes <= maxInFlightBytes;
+        }
+
+        private synchronized void release(long bytes) {
+            openFiles--;
+            inFlightBytes -= bytes;
+            notifyAll();
+        }
+
+        /**
+         * Holds its share of the budget from the time its stream is opened until it is closed.
+         */
+        private final class BudgetedFile extends ForwardingFile {
+            private BudgetedFile(VirtualFile file) {
+                super(file);
+            }
+
+            @Override
+            public InputStream open() throws IOException {
+                // the length of a streamed bundle is unknown, it only counts as an open file
+                final long bytes = Math.max(0, file.length());
+                acquire(file.getName(), bytes);
+                InputStream input;
+                try {
+                    input = file.open();
+                } catch (IOException | RuntimeException e) {
+                    release(bytes);
+                    throw e;
+                }
+                return new FilterInputStream(input) {
+                    private boolean closed;
+
+                    @Override
+                    public void close() throws IOException {
+                        try {
+                            super.close();
+                        } finally {
+                            if (!closed) {
+                                closed = true;
+                                release(bytes);
+                            }
+                        }
+                    }
+                };
+            }
+
+            @Override
+            LocalCopy openCopy() throws IOException {
+                final long bytes = Math.max(0, file.length());
+                acquire(file.getName(), bytes);
+                LocalCopy copy;
+                try {
+                    copy = copyOf(file);
+                } catch (IOException | RuntimeException e) {
+                    release(bytes);
+                    throw e;
+                }
+                if (copy == null) {
+                    release(bytes);
+                    return null;
+                }
+                return new LocalCopy(copy) {
+                    private boolean closed;
+
+                    @Override
+                    public void close() throws IOException {
+                        try {
+                            super.close();
+                        } finally {
+                            if (!closed) {
+                                closed = true;
+                                release(bytes);
+                            }
+                        }
+                    }
+                };
+            }
+        }
+    }
+
+    @Extension
+    public static class DescriptorImpl extends Descriptor<MemoryBudget> {
+        @Nonnull
+        @Override
+        public String getDisplayName() {
+            return Messages.binarydeployer_core_memoryBudget_displayName();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2017 CloudBees, Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.binarydeployer.core;
+
+import com.google.common.collect.Sets;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Deploys binaries on a fixed number of threads while they are still being discovered, failing as soon as one of the
+ * transfers gave up.
+ *
+ * @author Adrien Lecharpentier
+ */
+public final class ParallelDeployment {
+    /** The number of binaries waiting for each thread, so a thread never waits for the discovery. */
+    static final int QUEUED_PER_THREAD = 2;
+
+    private ParallelDeployment() {
+    }
+
+    /**
+     * The transfer of one binary, retried according to the {@link RetryPolicy} of the deployment.
+     */
+    public interface Transfer {
+        /**
+         * @param binary the binary to deploy
+         * @throws IOException          if the transfer failed
+         * @throws InterruptedException if the transfer is interrupted
+         */
+        void deploy(Binary binary) throws IOException, InterruptedException;
+    }
+
+    /**
+     * @param binaries    the binaries to deploy
+     * @param concurrency the number of binaries transferred at the same time
+     * @param target      the location the binaries are deployed to, naming the threads of the deployment
+     * @param retries     the retries of the deployment
+     * @param report      the report in which the transfers are recorded
+     * @param transfer    the transfer of each binary
+     * @throws IOException          the failure of the first transfer which gave up, the others are cancelled
+     * @throws InterruptedException if the deployment is interrupted
+     */
+    public static void deploy(Iterable<Binary> binaries, int concurrency, String target, RetryPolicy.Retries retries,
+                              DeployReport report, Transfer transfer) throws IOException, InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency,
+            new NamingThreadFactory(new DaemonThreadFactory(), "Deployment to " + target));
+        // bounded, so the discovery waits for the transfers instead of queueing every binary of the tree
+        int limit = concurrency * QUEUED_PER_THREAD;
+        Set<Future<Void>> pending = Sets.newHashSet();
+        try {
+            CompletionService<Void> completion = new ExecutorCompletionService<>(executor);
+            for (final Binary binary : binaries) {
+                if (pending.size() >= limit) {
+                    completed(completion.take(), pending, target);
+                }
+                pending.add(completion.submit(() -> retries.call(binary, report, attempt -> {
+                    transfer.deploy(binary);
+                    return null;
+                })));
+                // the binaries are still being discovered, fail as soon as a transfer did
+                for (Future<Void> done = completion.poll(); done != null; done = completion.poll()) {
+                    completed(done, pending, target);
+                }
+            }
+
+            while (!pending.isEmpty()) {
+                completed(completion.take(), pending, target);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void completed(Future<Void> transfer, Set<Future<Void>> pending, String target)
+        throws IOException, InterruptedException {
+        pending.remove(transfer);
+        try {
+            transfer.get();
+        } catch (ExecutionException e) {
+            for (Future<Void> other : pending) {
+                other.cancel(true);
+            }
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Cannot deploy files to " + target, e.getCause());
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2017 CloudBees, Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.binarydeployer.core;
+
+import com.google.common.collect.ImmutableList;
+import hudson.Util;
+import org.apache.tools.ant.types.selectors.SelectorUtils;
+
+import javax.annotation.CheckForNull;
+import java.io.File;
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Selects files from Ant-style include and exclude patterns, separated by commas, the way a fileset does.
+ * <p>
+ * Paths are relative to the root of the walk and use {@code /} as separator. Besides matching files, the filter tells
+ * whether a directory can contain any file to select, so the directories fully excluded are never listed.
+ * </p>
+ *
+ * @author Adrien Lecharpentier
+ */
+public final class PathFilter implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Selects every file.
+     */
+    public static final PathFilter ALL = new PathFilter(ImmutableList.of("**"), ImmutableList.<String>of());
+
+    private final List<String> includes;
+    private final List<String> excludes;
+
+    private PathFilter(List<String> includes, List<String> excludes) {
+        this.includes = includes;
+        this.excludes = excludes;
+    }
+
+    /**
+     * @param includes the patterns of the files to select, all files when empty
+     * @param excludes the patterns of the files to leave out, none when empty
+     * @return the filter of the patterns
+     */
+    public static PathFilter of(@CheckForNull String includes, @CheckForNull String excludes) {
+        List<String> included = patterns(includes);
+        return new PathFilter(included.isEmpty() ? ALL.includes : included, patterns(excludes));
+    }
+
+    private static List<String> patterns(@CheckForNull String patterns) {
+        ImmutableList.Builder<String> builder = ImmutableList.builder();
+        if (Util.fixEmptyAndTrim(patterns) == null) {
+            return builder.build();
+        }
+        for (String pattern : patterns.split(",")) {
+            pattern = pattern.trim();
+            if (pattern.isEmpty()) {
+                continue;
+            }
+            // like Ant, a directory stands for everything below it
+            if (pattern.endsWith("/")) {
+                pattern += "**";
+            }
+            builder.add(toPlatform(pattern));
+        }
+        return builder.build();
+    }
+
+    /**
+     * {@link SelectorUtils} splits patterns and paths on the separator of the platform.
+     */
+    private static String toPlatform(String path) {
+        return path.replace('/', File.separatorChar);
+    }
+
+    /**
+     * @param path the path of a file
+     * @return whether the file is selected
+     */
+    public boolean includes(String path) {
+        String file = toPlatform(path);
+        for (String exclude : excludes) {
+            if (SelectorUtils.matchPath(exclude, file)) {
+                return false;
+            }
+        }
+        for (String include : includes) {
+            if (SelectorUtils.matchPath(include, file)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param path the path of a directory
+     * @return whether files under the directory can be selected, so it must be listed
+     */
+    public boolean canContain(String path) {
+        String directory = toPlatform(path);
+        for (String exclude : excludes) {
+            // "dir/**" leaves out the whole directory, while "dir/*.log" only some of its files
+            if (exclude.endsWith("**") && SelectorUtils.matchPath(exclude, directory)) {
+                return false;
+            }
+        }
+        for (String include : includes) {
+            if (SelectorUtils.matchPatternStart(include, directory)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2017 CloudBees, Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.binarydeployer.core;
+
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * Deploys binaries from the agent which built them, so their content doesn't go through the master.
+ * <p>
+ * It is created on the master by {@link Repository#createRemoteDeployer(hudson.model.Run)} and sent to the agent, so
+ * it must carry everything needed to reach the repository, including the resolved credentials.
+ * </p>
+ *
+ * @author Adrien Lecharpentier
+ */
+public interface RemoteDeployer extends Serializable {
+    /**
+     * @param binaries the {@link Binary} to deploy
+     * @param report   the report in which the transfers are recorded
+     * @throws IOException in case of issue with the file manipulation or the transfer
+     * @throws InterruptedException if the deployment is interrupted
+     */
+    void deploy(Iterable<Binary> binaries, DeployReport report) throws IOException, InterruptedException;
+}
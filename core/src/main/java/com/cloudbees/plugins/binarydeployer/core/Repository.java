@@ -26,23 +26,101 @@ package com.cloudbees.plugins.binarydeployer.core;
 
 import hudson.model.AbstractDescribableImpl;
 import hudson.model.Run;
+import org.kohsuke.stapler.DataBoundSetter;
 
+import javax.annotation.CheckForNull;
 import java.io.IOException;
+import java.io.Serializable;
+import java.util.Collections;
 import java.util.List;
 
 /**
+ * A location binaries are deployed to.
+ * <p>
+ * It is {@link Serializable} so it can be held by a Pipeline step which survives a restart of the master.
+ * </p>
+ *
  * @author Adrien Lecharpentier
  */
-public abstract class Repository extends AbstractDescribableImpl<Repository> {
+public abstract class Repository extends AbstractDescribableImpl<Repository> implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private RetryPolicy retryPolicy;
+    private MemoryBudget memoryBudget;
 
     /**
      * Handle the file deployment for each implementation.
      *
-     * @param binaries list of {@link Binary} to deploy
+     * @param binaries the {@link Binary} to deploy, which can still be discovered while the first ones are deployed
      * @param run   the context in which the deploy is taking place
      * @throws IOException in case of issue with the file manipulation
+     * @throws InterruptedException if the deployment is interrupted while waiting for uploads to complete
+     */
+    abstract protected void deploy(Iterable<Binary> binaries, Run run) throws IOException, InterruptedException;
+
+    /**
+     * Finds, among binaries which didn't change since they were last deployed, those which are not available in the
+     * repository anymore.
+     * <p>
+     * The default implementation trusts the deployment index and considers all of them available.
+     * </p>
+     *
+     * @param binaries list of {@link Binary} already deployed
+     * @param run      the context in which the deploy is taking place
+     * @return the binaries which must be deployed again
+     * @throws IOException in case of issue while reaching the repository
+     * @throws InterruptedException if the verification is interrupted
+     */
+    protected List<Binary> missing(List<Binary> binaries, Run run) throws IOException, InterruptedException {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Creates the deployer to run on the agent which built the binaries, so they are sent to the repository without
+     * going through the master.
+     * <p>
+     * The default implementation returns null, meaning the repository only deploys from the master.
+     * </p>
+     *
+     * @param run the context in which the deploy is taking place
+     * @return the deployer to send to the agent, or null if the repository doesn't support it
+     * @throws IOException in case of issue while resolving the configuration, for example the credentials
+     */
+    @CheckForNull
+    protected RemoteDeployer createRemoteDeployer(Run run) throws IOException {
+        return null;
+    }
+
+    /**
+     * @return the policy the implementations must apply when the transfer of a binary fails, never null
+     */
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy == null ? RetryPolicy.NONE : retryPolicy;
+    }
+
+    @DataBoundSetter
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * @return the budget the deployments to this repository read the files within, never null
      */
-    abstract protected void deploy(List<Binary> binaries, Run run) throws IOException;
+    public MemoryBudget getMemoryBudget() {
+        return memoryBudget == null ? MemoryBudget.NONE : memoryBudget;
+    }
+
+    @DataBoundSetter
+    public void setMemoryBudget(MemoryBudget memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * @return an identifier of the location binaries are deployed to
+     */
+    public String getTarget() {
+        return getDescriptor().getId();
+    }
 
     @Override
     public RepositoryDescriptor getDescriptor() {
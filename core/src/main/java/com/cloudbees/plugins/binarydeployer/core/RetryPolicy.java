@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2017 CloudBees, Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.binarydeployer.core;
+
+import hudson.AbortException;
+import hudson.Extension;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.util.FormValidation;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Defines how a {@link Repository} retries the transfer of a {@link Binary} which failed.
+ * <p>
+ * The transfers are retried with an exponential backoff, randomized by the jitter so concurrent uploads failing at the
+ * same time don't all retry at the same time. The budget bounds the number of retries of a whole deployment, so a
+ * repository which is down doesn't get every binary retried.
+ * </p>
+ * <p>
+ * An {@link AbortException} is never retried, which lets the repositories distinguish permanent failures.
+ * </p>
+ *
+ * @author Adrien Lecharpentier
+ */
+public class RetryPolicy extends AbstractDescribableImpl<RetryPolicy> implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final Logger log = Logger.getLogger(RetryPolicy.class.getCanonicalName());
+
+    /**
+     * Never retries.
+     */
+    public static final RetryPolicy NONE = new RetryPolicy(1, 0, 0, 0, 0);
+
+    private final int maxAttempts;
+    private final long initialBackoff;
+    private final long maxBackoff;
+    private final int jitter;
+    private final int budget;
+
+    /**
+     * @param maxAttempts    the number of times a transfer is attempted, including the first one
+     * @param initialBackoff the delay, in milliseconds, before the first retry
+     * @param maxBackoff     the maximum delay, in milliseconds, between two attempts
+     * @param jitter         the percentage of the delay which is randomized
+     * @param budget         the number of retries allowed for a whole deployment, or 0 to not limit them
+     */
+    @DataBoundConstructor
+    public RetryPolicy(int maxAttempts, long initialBackoff, long maxBackoff, int jitter, int budget) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.initialBackoff = Math.max(0, initialBackoff);
+        this.maxBackoff = Math.max(this.initialBackoff, maxBackoff);
+        this.jitter = Math.max(0, Math.min(100, jitter));
+        this.budget = Math.max(0, budget);
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public long getInitialBackoff() {
+        return initialBackoff;
+    }
+
+    public long getMaxBackoff() {
+        return maxBackoff;
+    }
+
+    public int getJitter() {
+        return jitter;
+    }
+
+    public int getBudget() {
+        return budget;
+    }
+
+    /**
+     * @return the retries of a new deployment, sharing the budget of the policy
+     */
+    public Retries start() {
+        return new Retries();
+    }
+
+    long backoff(int attempt) {
+        long delay = initialBackoff;
+        for (int i = 1; i < attempt && delay < maxBackoff; i++) {
+            delay *= 2;
+        }
+        delay = Math.min(delay, maxBackoff);
+        if (jitter > 0 && delay > 0) {
+            delay -= (long) (delay * jitter / 100.0 * ThreadLocalRandom.current().nextDouble());
+        }
+        return delay;
+    }
+
+    /**
+     * A transfer which can be attempted several times.
+     *
+     * @param <T> the result of the transfer
+     */
+    public interface Attempt<T> {
+        /**
+         * @param attempt the number of the attempt, starting at 1
+         * @return the result of the transfer
+         * @throws IOException          if the transfer failed, it is retried unless it is an {@link AbortException}
+         * @throws InterruptedException if the transfer is interrupted
+         */
+        T run(int attempt) throws IOException, InterruptedException;
+    }
+
+    /**
+     * The retries of one deployment.
+     */
+    public final class Retries implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final AtomicInteger remaining = new AtomicInteger(budget == 0 ? Integer.MAX_VALUE : budget);
+
+        private Retries() {
+        }
+
+        /**
+         * Attempts the transfer of a binary until it succeeds or the policy gives up.
+         *
+         * @param binary  the binary transferred
+         * @param report  the report in which the retries are recorded, can be null
+         * @param attempt the transfer
+         * @param <T>     the result of the transfer
+         * @return the result of the successful attempt
+         * @throws IOException          the failure of the last attempt
+         * @throws InterruptedException if interrupted while transferring or waiting to retry
+         */
+        public <T> T call(Binary binary, DeployReport report, Attempt<T> attempt)
+            throws IOException, InterruptedException {
+            for (int i = 1; ; i++) {
+                try {
+                    return attempt.run(i);
+                } catch (AbortException e) {
+                    throw e;
+                } catch (IOException e) {
+                    if (i >= maxAttempts || remaining.getAndDecrement() <= 0) {
+                        throw e;
+                    }
+                    long delay = backoff(i);
+                    log.fine("Attempt " + i + " to deploy " + binary.getName() + " failed (" + e.getMessage()
+                        + "), retrying in " + delay + " ms");
+                    if (report != null) {
+                        report.retried(binary);
+                    }
+                    Thread.sleep(delay);
+                }
+            }
+        }
+    }
+
+    @Extension
+    public static class DescriptorImpl extends Descriptor<RetryPolicy> {
+        @Nonnull
+        @Override
+        public String getDisplayName() {
+            return Messages.binarydeployer_core_retryPolicy_displayName();
+        }
+
+        public FormValidation doCheckMaxAttempts(@QueryParameter String value) {
+            return FormValidation.validatePositiveInteger(value);
+        }
+
+        public FormValidation doCheckJitter(@QueryParameter int value) {
+            if (value < 0 || value > 100) {
+                return FormValidation.error(Messages.binarydeployer_core_retryPolicy_invalidJitter());
+            }
+            return FormValidation.ok();
+        }
+    }
+}
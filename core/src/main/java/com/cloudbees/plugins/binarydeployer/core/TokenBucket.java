@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2017 CloudBees, Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.binarydeployer.core;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits a throughput to a number of bytes per second, allowing bursts of up to one second.
+ * <p>
+ * Callers take the bytes they have just transferred and are put to sleep for as long as the bucket is in debt, so a
+ * large read is never split and the limit is respected on average.
+ * </p>
+ *
+ * @author Adrien Lecharpentier
+ */
+final class TokenBucket {
+    private final long bytesPerSecond;
+    private double available;
+    private long refilled = System.nanoTime();
+
+    /**
+     * @param bytesPerSecond the throughput allowed, strictly positive
+     */
+    TokenBucket(long bytesPerSecond) {
+        if (bytesPerSecond <= 0) {
+            throw new IllegalArgumentException("The throughput must be positive: " + bytesPerSecond);
+        }
+        this.bytesPerSecond = bytesPerSecond;
+        this.available = bytesPerSecond;
+    }
+
+    long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * @param bytes the number of bytes transferred
+     * @throws InterruptedException if interrupted while waiting for the bucket to refill
+     */
+    void take(long bytes) throws InterruptedException {
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            available = Math.min(bytesPerSecond,
+                available + (now - refilled) * (double) bytesPerSecond / TimeUnit.SECONDS.toNanos(1));
+            refilled = now;
+            available -= bytes;
+            waitNanos = available >= 0 ? 0 : (long) (-available * TimeUnit.SECONDS.toNanos(1) / bytesPerSecond);
+        }
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2017 CloudBees, Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.binarydeployer.core;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
+import jenkins.util.VirtualFile;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Adrien Lecharpentier
+ */
+public class AgentDeploymentTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File workspace;
+
+    @Before
+    public void createWorkspace() throws IOException {
+        workspace = tmp.newFolder("workspace");
+        write("target/app.jar", 1000);
+        write("README", 10);
+    }
+
+    /**
+     * @return the files of the workspace, as if they were archived as they are now
+     */
+    private Map<String, AgentDeployment.Archived> archived() throws IOException {
+        Map<String, AgentDeployment.Archived> artifacts = Maps.newLinkedHashMap();
+        for (String path : ImmutableList.of("target/app.jar", "README")) {
+            VirtualFile file = VirtualFile.forFile(new File(workspace, path));
+            artifacts.put(path, new AgentDeployment.Archived(file.length(), "SHA-256", Digests.sha256(file)));
+        }
+        return artifacts;
+    }
+
+    @Test
+    public void deploysTheWorkspaceFilesUnderTheirArchivedNames() throws Exception {
+        DeployReport report = new AgentDeployment(new ReadingDeployer(), "target", archived(), false, null,
+            DeployOrder.DISCOVERY).invoke(workspace, null).getReport();
+
+        assertTrue(report.isDeployed("target/app.jar"));
+        assertTrue(report.isDeployed("README"));
+        assertEquals(2, report.getFileCount());
+        assertEquals(1010, report.getTotalBytes());
+        assertFalse(report.isPartial());
+    }
+
+    @Test
+    public void flattenedFilesAreNamedWithoutTheirDirectories() throws Exception {
+        DeployReport report = new AgentDeployment(new ReadingDeployer(), "target", archived(), true, null,
+            DeployOrder.DISCOVERY).invoke(workspace, null).getReport();
+
+        assertTrue(report.isDeployed("app.jar"));
+        assertFalse(report.isDeployed("target/app.jar"));
+    }
+
+    @Test
+    public void bundledFilesAreDeployedAsOneArchive() throws Exception {
+        DeployReport report = new AgentDeployment(new ReadingDeployer(), "target", archived(), false,
+            new Bundler(BundleFormat.ZIP, "bundle", false), DeployOrder.DISCOVERY).invoke(workspace, null).getReport();
+
+        assertTrue(report.isDeployed("bundle.zip"));
+        assertEquals(1, report.getFileCount());
+    }
+
+    @Test
+    public void deploymentAndItsReportCrossTheChannel() throws Exception {
+        AgentDeployment deployment = roundTrip(new AgentDeployment(new ReadingDeployer(), "target", archived(), false,
+            null, DeployOrder.LARGEST_FIRST));
+
+        DeployReport report = roundTrip(deployment.invoke(workspace, null)).getReport();
+
+        assertEquals("target", report.getTarget());
+        assertTrue(report.isDeployed("target/app.jar"));
+        assertEquals(1010, report.getTotalBytes());
+    }
+
+    @Test
+    public void changedFilesAreLeftToTheMaster() throws Exception {
+        Map<String, AgentDeployment.Archived> artifacts = archived();
+        // same length, different content
+        Files.write(new File(workspace, "README").toPath(), "0123456789".getBytes(StandardCharsets.UTF_8));
+
+        AgentDeployment.Outcome outcome = new AgentDeployment(new ReadingDeployer(), "target", artifacts, false, null,
+            DeployOrder.DISCOVERY).invoke(workspace, null);
+
+        assertEquals(Collections.singletonList("README"), outcome.getChanged());
+        assertEquals(0, outcome.getReport().getFileCount());
+        assertNull(outcome.getFailure());
+    }
+
+    @Test
+    public void failedDeploymentKeepsTheTransfersDoneBefore() throws Exception {
+        AgentDeployment.Outcome outcome = roundTrip(new AgentDeployment((binaries, report) -> {
+            for (Binary binary : binaries) {
+                if (binary.getName().equals("README")) {
+                    throw new IOException("Cannot deploy README");
+                }
+                report.deployed(binary);
+            }
+        }, "target", archived(), false, null, DeployOrder.DISCOVERY).invoke(workspace, null));
+
+        assertTrue(outcome.getReport().isDeployed("target/app.jar"));
+        assertNotNull(outcome.getFailure());
+        assertEquals("Cannot deploy README", outcome.getFailure().getMessage());
+    }
+
+    private void write(String path, int length) throws IOException {
+        File file = new File(workspace, path);
+        Files.createDirectories(file.getParentFile().toPath());
+        Files.write(file.toPath(), new byte[length]);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends Serializable> T roundTrip(T object) throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+            output.writeObject(object);
+        }
+        try (ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            return (T) input.readObject();
+        }
+    }
+
+    private static final class ReadingDeployer implements RemoteDeployer {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public void deploy(Iterable<Binary> binaries, DeployReport report) throws IOException {
+            for (Binary binary : binaries) {
+                try (InputStream input = binary.getFile().open()) {
+                    ByteStreams.exhaust(input);
+                }
+                report.deployed(binary);
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2017 CloudBees, Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.binarydeployer.core;
+
+import com.google.common.collect.Sets;
+import org.junit.Test;
+
+import java.util.Iterator;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Adrien Lecharpentier
+ */
+public class BinaryWalkerTest {
+    @Test
+    public void parallelWalkFindsTheSameBinaries() {
+        SyntheticFile root = SyntheticFile.tree(3, 3, 4, 1);
+        Set<String> sequential = names(BinaryWalker.walk(root, false));
+        try (BinaryWalker.Discovery parallel = BinaryWalker.walkInParallel(root, false, 4)) {
+            assertEquals(sequential, names(parallel));
+        }
+        // 4 files in each of the 1 + 3 + 9 + 27 directories
+        assertEquals(160, sequential.size());
+        assertTrue(sequential.contains("dir-2/dir-0/dir-1/file-3.bin"));
+    }
+
+    @Test
+    public void flattenedBinariesKeepTheirFileName() {
+        Set<String> names = names(BinaryWalker.walk(SyntheticFile.tree(2, 2, 2, 1), true));
+        assertEquals(Sets.newHashSet("file-0.bin", "file-1.bin"), names);
+    }
+
+    @Test
+    public void filterSkipsTheDirectoriesWhichCannotContainSelectedFiles() {
+        SyntheticFile root = SyntheticFile.tree(2, 3, 1, 1);
+        Set<String> names = names(BinaryWalker.walk(root, false, PathFilter.of("dir-1/**", null)));
+        assertEquals(Sets.newHashSet("dir-1/file-0.bin", "dir-1/dir-0/file-0.bin", "dir-1/dir-1/file-0.bin",
+            "dir-1/dir-2/file-0.bin"), names);
+        // the root, dir-1 and its 3 sub-directories
+        assertEquals(5, root.getListings());
+    }
+
+    @Test(timeout = 30000)
+    public void closedWalkStopsListing() throws InterruptedException {
+        // 1 + 10 + 100 + 1000 directories
+        SyntheticFile root = SyntheticFile.tree(3, 10, 5, 1);
+        BinaryWalker.Discovery walk = BinaryWalker.walkInParallel(root, false, 4);
+        Iterator<Binary> binaries = walk.iterator();
+        binaries.next();
+        walk.close();
+
+        int listings = awaitStableListings(root);
+        assertTrue("listed " + listings + " directories", listings < 1111);
+        assertTrue(!binaries.hasNext());
+    }
+
+    @Test(timeout = 30000)
+    public void walkWaitsForTheDeploymentToCatchUp() throws InterruptedException {
+        // 5555 files, more than the walk discovers ahead of the deployment
+        SyntheticFile root = SyntheticFile.tree(3, 10, 5, 1);
+        try (BinaryWalker.Discovery walk = BinaryWalker.walkInParallel(root, false, 4)) {
+            Iterator<Binary> binaries = walk.iterator();
+            int listings = awaitStableListings(root);
+            assertTrue("listed " + listings + " directories", listings < 1111);
+
+            int count = 0;
+            while (binaries.hasNext()) {
+                binaries.next();
+                count++;
+            }
+            assertEquals(5555, count);
+            assertEquals(1111, root.getListings());
+        }
+    }
+
+    private static int awaitStableListings(SyntheticFile root) throws InterruptedException {
+        int listings;
+        int previous = -1;
+        while ((listings = root.getListings()) != previous) {
+            previous = listings;
+            Thread.sleep(200);
+        }
+        return listings;
+    }
+
+    private static Set<String> names(Iterable<Binary> binaries) {
+        Set<String> names = Sets.newHashSet();
+        for (Binary binary : binaries) {
+            names.add(binary.getName());
+        }
+        return names;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2017 CloudBees, Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.binarydeployer.core;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * @author Adrien Lecharpentier
+ */
+public class BundlerTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test(timeout = 300000)
+    public void zipEntryLargerThan4GBIsBundled() throws Exception {
+        long length = 5L * 1024 * 1024 * 1024;
+        Binary bundle = new Bundler(BundleFormat.ZIP, "bundle", true).bundle(Arrays.asList(
+            Binary.from(SyntheticFile.file("large.bin", length)), Binary.from(SyntheticFile.file("small.bin", 10))));
+
+        // made of zeros, the archive is small
+        File archive = new File(tmp.getRoot(), bundle.getName());
+        try (InputStream input = bundle.getFile().open()) {
+            Files.copy(input, archive.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        try (ZipFile zip = new ZipFile(archive)) {
+            ZipArchiveEntry large = zip.getEntry("large.bin");
+            assertNotNull(large);
+            assertEquals(length, large.getSize());
+            assertEquals(10, zip.getEntry("small.bin").getSize());
+            assertNotNull(zip.getEntry(Bundler.MANIFEST));
+        }
+    }
+}
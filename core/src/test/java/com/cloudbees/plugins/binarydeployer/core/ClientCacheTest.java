@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2017 CloudBees, Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.binarydeployer.core;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * @author Adrien Lecharpentier
+ */
+public class ClientCacheTest {
+    private final AtomicInteger disposed = new AtomicInteger();
+    private final ClientCache<Object> cache = new ClientCache<>("test", 1, TimeUnit.MINUTES.toMillis(10),
+        client -> disposed.incrementAndGet());
+
+    @Test
+    public void clientIsSharedBetweenDeployments() throws Exception {
+        Object first;
+        try (ClientCache.Lease<Object> lease = cache.acquire("http://repo", "", "user:password", Object::new)) {
+            first = lease.get();
+        }
+        try (ClientCache.Lease<Object> lease = cache.acquire("http://repo", "", "user:password", Object::new)) {
+            assertSame(first, lease.get());
+        }
+        assertEquals(0, disposed.get());
+    }
+
+    @Test
+    public void changedCredentialsGetANewClient() throws Exception {
+        try (ClientCache.Lease<Object> first = cache.acquire("http://repo", "", "user:password", Object::new);
+             ClientCache.Lease<Object> second = cache.acquire("http://repo", "", "user:changed", Object::new)) {
+            assertNotSame(first.get(), second.get());
+        }
+        // only one idle client is kept
+        assertEquals(1, disposed.get());
+    }
+
+    @Test(timeout = 30000)
+    public void slowCreationDoesNotHoldTheOtherLocations() throws Exception {
+        CountDownLatch creating = new CountDownLatch(1);
+        CountDownLatch created = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<ClientCache.Lease<Object>> slow = executor.submit(() -> cache.acquire("http://slow", "", null,
+                () -> {
+                    creating.countDown();
+                    Uninterruptibles.awaitUninterruptibly(created);
+                    return new Object();
+                }));
+            creating.await();
+
+            try (ClientCache.Lease<Object> lease = cache.acquire("http://fast", "", null, Object::new)) {
+                assertNotNull(lease.get());
+            }
+            created.countDown();
+            slow.get().close();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
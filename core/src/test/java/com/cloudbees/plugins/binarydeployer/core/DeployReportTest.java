@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2017 CloudBees, Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.binarydeployer.core;
+
+import com.google.common.collect.Sets;
+import hudson.model.Run;
+import jenkins.util.VirtualFile;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Adrien Lecharpentier
+ */
+public class DeployReportTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void measuresTheStreamsOfTheRepository() throws IOException {
+        DeployReport report = new DeployReport("target");
+        for (Binary binary : report.meter(BinaryWalker.walk(SyntheticFile.tree(0, 0, 3, 1000), false))) {
+            read(binary);
+            report.deployed(binary);
+        }
+        assertTrue(report.isDeployed("file-2.bin"));
+        report.finished(1000);
+
+        assertEquals(3, report.getFileCount());
+        assertEquals(3000, report.getTotalBytes());
+        assertFalse(report.isPartial());
+    }
+
+    @Test
+    public void measuresTheLocalCopies() throws IOException {
+        File file = tmp.newFile("app.jar");
+        Files.write(file.toPath(), new byte[1000]);
+        DeployReport report = new DeployReport("target");
+        Binary binary = report.meter(Collections.singleton(Binary.from(VirtualFile.forFile(file)))).iterator().next();
+        try (LocalCopy copy = binary.copyLocally()) {
+            assertNotNull(copy);
+            assertEquals(file, copy.getFile());
+            copy.transferred(600);
+            copy.transferred(400);
+        }
+        report.deployed(binary);
+        report.finished(1000);
+
+        assertEquals(1, report.getFileCount());
+        assertEquals(1000, report.getTotalBytes());
+    }
+
+    @Test
+    public void syntheticFilesAreOnlyStreamed() throws IOException {
+        DeployReport report = new DeployReport("target");
+        for (Binary binary : report.meter(BinaryWalker.walk(SyntheticFile.tree(0, 0, 1, 1000), false))) {
+            assertNull(binary.copyLocally());
+        }
+    }
+
+    @Test
+    public void deduplicatedBinariesAreNotTransferred() throws IOException {
+        DeployReport report = new DeployReport("target");
+        for (Binary binary : report.meter(BinaryWalker.walk(SyntheticFile.tree(0, 0, 2, 1000), false))) {
+            // identifying the content through the source isn't measured
+            read(Binary.from(binary.getSource()));
+            if (binary.getName().equals("file-0.bin")) {
+                report.deduplicated(binary);
+            } else {
+                read(binary);
+                report.deployed(binary);
+            }
+        }
+        assertTrue(report.isDeployed("file-0.bin"));
+        report.finished(1000);
+
+        assertEquals(2, report.getFileCount());
+        assertEquals(1000, report.getTotalBytes());
+        assertEquals(1, report.getDeduplicatedCount());
+        assertTrue(report.getSummary().contains("1 already stored"));
+    }
+
+    @Test
+    public void runRecordOnlyKeepsTheAggregatesAndTheNotableTransfers() throws IOException {
+        DeployReport report = new DeployReport("target");
+        for (Binary binary : report.meter(BinaryWalker.walk(SyntheticFile.tree(0, 0, 250, 10), false))) {
+            read(binary);
+            if (!binary.getName().equals("file-7.bin")) {
+                report.deployed(binary);
+            }
+        }
+        report.finished(1000);
+
+        DeployReportAction.omitLiveTransfers();
+        String xml = Run.XSTREAM2.toXML(report);
+        DeployReport loaded = (DeployReport) Run.XSTREAM2.fromXML(xml);
+
+        assertEquals(250, loaded.getFileCount());
+        assertEquals(2500, loaded.getTotalBytes());
+        assertEquals(report.getLatencyMillis(95), loaded.getLatencyMillis(95));
+        assertTrue(loaded.isPartial());
+        assertEquals(DeployReport.NOTABLE_TRANSFERS, loaded.getTransfers().size());
+        assertEquals(DeployReport.NOTABLE_TRANSFERS, xml.split("<name>", -1).length - 1);
+
+        boolean failedKept = false;
+        for (DeployReport.Transfer transfer : loaded.getTransfers()) {
+            failedKept |= transfer.getName().equals("file-7.bin") && !transfer.isDeployed();
+        }
+        assertTrue("the failed transfer is kept", failedKept);
+    }
+
+    @Test
+    public void finishedReportOnlyHoldsTheNotableTransfers() throws IOException {
+        DeployReport report = new DeployReport("target");
+        for (Binary binary : report.meter(BinaryWalker.walk(SyntheticFile.tree(0, 0, 250, 10), false))) {
+            read(binary);
+            report.deployed(binary);
+        }
+        assertEquals(250, report.getTransfers().size());
+        report.finished(1000);
+
+        assertEquals(250, report.getFileCount());
+        assertEquals(DeployReport.NOTABLE_TRANSFERS, report.getTransfers().size());
+        assertTrue(report.isPartial());
+        assertFalse(report.isDeployed("file-0.bin"));
+    }
+
+    @Test
+    public void deploymentsToTheSameTargetAddUp() throws IOException {
+        DeployReport report = new DeployReport("target");
+        for (Binary binary : report.meter(BinaryWalker.walk(SyntheticFile.tree(0, 0, 150, 10), false))) {
+            read(binary);
+            report.deployed(binary);
+        }
+        report.finished(1000);
+
+        // deployed again in the same run, on an agent this time
+        DeployReport agent = new DeployReport("target");
+        for (Binary binary : agent.meter(BinaryWalker.walk(SyntheticFile.tree(0, 0, 50, 100), false))) {
+            read(binary);
+            if (!binary.getName().equals("file-7.bin")) {
+                agent.deployed(binary);
+            }
+        }
+        report.merge(agent);
+        assertEquals(200, report.getFileCount());
+        report.finished(1000);
+
+        assertEquals(200, report.getFileCount());
+        assertEquals(150 * 10 + 50 * 100, report.getTotalBytes());
+        assertEquals(DeployReport.NOTABLE_TRANSFERS, report.getTransfers().size());
+        assertEquals("the failed transfer of the second deployment is kept", 1,
+            report.getTransfers().stream().filter(t -> !t.isDeployed()).count());
+        assertTrue(report.getLatencyMillis(0) <= report.getLatencyMillis(100));
+    }
+
+    @Test
+    public void deployedBinariesAreRecordedForAResumedDeployment() throws IOException {
+        File file = new File(tmp.getRoot(), "binary-deployer/execution.deployed");
+        DeployReport report = new DeployReport("target");
+        try (DeployJournal journal = new DeployJournal(file)) {
+            for (Binary binary : report.meter(BinaryWalker.walk(SyntheticFile.tree(0, 0, 3, 1), false), journal)) {
+                if (!binary.getName().equals("file-1.bin")) {
+                    report.deployed(binary);
+                }
+            }
+        }
+
+        // the master restarted before the deployment finished, only the run record was loaded again
+        assertEquals(Sets.newHashSet("file-0.bin", "file-2.bin"), new DeployJournal(file).read());
+    }
+
+    @Test
+    public void eachExecutionJournalsItsOwnBinaries() throws IOException {
+        DeployReport report = new DeployReport("target");
+        DeployJournal first = new DeployJournal(new File(tmp.getRoot(), "first.deployed"));
+        DeployJournal second = new DeployJournal(new File(tmp.getRoot(), "second.deployed"));
+        for (Binary binary : report.meter(BinaryWalker.walk(SyntheticFile.tree(0, 0, 1, 1), false), first)) {
+            report.deployed(binary);
+        }
+        for (Binary binary : report.meter(BinaryWalker.walk(SyntheticFile.tree(0, 0, 0, 0), false), second)) {
+            report.deployed(binary);
+        }
+        // deployed without a journal, for example by the post-build step
+        for (Binary binary : report.meter(Collections.singleton(Binary.from(SyntheticFile.file("app.jar", 1))))) {
+            report.deployed(binary);
+        }
+
+        assertEquals(Sets.newHashSet("file-0.bin"), first.read());
+        assertTrue(second.read().isEmpty());
+        first.delete();
+        assertTrue(first.read().isEmpty());
+    }
+
+    private static void read(Binary binary) throws IOException {
+        try (InputStream input = binary.getFile().open()) {
+            byte[] buffer = new byte[8192];
+            while (input.read(buffer) != -1) {
+                // only measured
+            }
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2017 CloudBees, Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.binarydeployer.core;
+
+import com.google.common.collect.Lists;
+import jenkins.util.VirtualFile;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Adrien Lecharpentier
+ */
+public class MemoryBudgetTest {
+    private static final long MB = 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test(timeout = 30000)
+    public void concurrentTransfersStayWithinTheOpenFiles() throws Exception {
+        MemoryBudget.Usage usage = new MemoryBudget(3, 0).start();
+        AtomicInteger open = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+
+        deploy(usage.limit(files(40, 1000)), 8, binary -> {
+            try (InputStream input = binary.getFile().open()) {
+                peak.accumulateAndGet(open.incrementAndGet(), Math::max);
+                Thread.sleep(5);
+                open.decrementAndGet();
+                drain(input);
+            }
+        });
+
+        assertTrue("opened " + peak.get() + " files at once", peak.get() <= 3);
+        assertTrue(usage.getPeakOpenFiles() <= 3);
+    }
+
+    @Test(timeout = 30000)
+    public void concurrentTransfersStayWithinTheInFlightBytes() throws Exception {
+        MemoryBudget.Usage usage = new MemoryBudget(0, 1).start();
+        AtomicLong inFlight = new AtomicLong();
+        AtomicLong peak = new AtomicLong();
+
+        deploy(usage.limit(files(20, 400 * 1024)), 8, binary -> {
+            try (InputStream input = binary.getFile().open()) {
+                peak.accumulateAndGet(inFlight.addAndGet(400 * 1024), Math::max);
+                Thread.sleep(5);
+                drain(input);
+                inFlight.addAndGet(-400 * 1024);
+            }
+        });
+
+        assertTrue("read " + peak.get() + " bytes at once", peak.get() <= MB);
+        assertTrue(usage.getPeakInFlightBytes() <= MB);
+    }
+
+    @Test(timeout = 30000)
+    public void fileLargerThanTheBudgetIsReadAlone() throws Exception {
+        MemoryBudget.Usage usage = new MemoryBudget(0, 1).start();
+        List<Binary> binaries = Lists.newArrayList(usage.limit(Lists.newArrayList(
+            Binary.from(SyntheticFile.file("small.bin", 1000)), Binary.from(SyntheticFile.file("large.bin", 3 * MB)))));
+
+        CompletableFuture<Void> large;
+        try (InputStream small = binaries.get(0).getFile().open()) {
+            large = CompletableFuture.runAsync(() -> read(binaries.get(1)));
+            Thread.sleep(100);
+            assertFalse(large.isDone());
+            drain(small);
+        }
+        large.get(10, TimeUnit.SECONDS);
+
+        assertEquals(3 * MB, usage.getPeakInFlightBytes());
+        assertEquals(1, usage.getPeakOpenFiles());
+    }
+
+    @Test(timeout = 30000)
+    public void failedOpenReleasesTheBudget() throws Exception {
+        MemoryBudget.Usage usage = new MemoryBudget(1, 0).start();
+        // a directory cannot be opened
+        List<Binary> binaries = Lists.newArrayList(usage.limit(Lists.newArrayList(
+            Binary.from(SyntheticFile.tree(0, 0, 0, 0)), Binary.from(SyntheticFile.file("file.bin", 10)))));
+
+        try {
+            binaries.get(0).getFile().open();
+            fail("a directory was opened");
+        } catch (FileNotFoundException e) {
+            // the budget it took is given back
+        }
+        read(binaries.get(1));
+        assertEquals(1, usage.getPeakOpenFiles());
+    }
+
+    @Test(timeout = 30000)
+    public void localCopyHoldsTheBudgetUntilClosed() throws Exception {
+        MemoryBudget.Usage usage = new MemoryBudget(1, 0).start();
+        List<Binary> binaries = Lists.newArrayList();
+        for (String name : new String[] {"first.bin", "second.bin"}) {
+            File file = tmp.newFile(name);
+            Files.write(file.toPath(), new byte[10]);
+            binaries.add(Binary.from(VirtualFile.forFile(file)));
+        }
+        binaries = Lists.newArrayList(usage.limit(binaries));
+
+        CompletableFuture<Void> second;
+        try (LocalCopy copy = binaries.get(0).copyLocally()) {
+            assertNotNull(copy);
+            Binary next = binaries.get(1);
+            second = CompletableFuture.runAsync(() -> read(next));
+            Thread.sleep(100);
+            assertFalse(second.isDone());
+            copy.transferred(10);
+        }
+        second.get(10, TimeUnit.SECONDS);
+        assertEquals(1, usage.getPeakOpenFiles());
+    }
+
+    @Test(timeout = 30000)
+    public void interruptedWaitFailsTheTransfer() throws Exception {
+        MemoryBudget.Usage usage = new MemoryBudget(1, 0).start();
+        List<Binary> binaries = Lists.newArrayList(usage.limit(files(2, 10)));
+        CountDownLatch failed = new CountDownLatch(1);
+
+        try (InputStream first = binaries.get(0).getFile().open()) {
+            Thread waiting = new Thread(() -> {
+                try {
+                    binaries.get(1).getFile().open().close();
+                } catch (InterruptedIOException e) {
+                    failed.countDown();
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            waiting.start();
+            Thread.sleep(100);
+            waiting.interrupt();
+            assertTrue(failed.await(10, TimeUnit.SECONDS));
+            drain(first);
+        }
+        assertEquals(1, usage.getPeakOpenFiles());
+    }
+
+    private static List<Binary> files(int count, long length) {
+        List<Binary> binaries = Lists.newArrayList();
+        for (int i = 0; i < count; i++) {
+            binaries.add(Binary.from(SyntheticFile.file("file-" + i + ".bin", length)));
+        }
+        return binaries;
+    }
+
+    private static void deploy(Iterable<Binary> binaries, int concurrency, ParallelDeployment.Transfer transfer)
+        throws IOException, InterruptedException {
+        ParallelDeployment.deploy(binaries, concurrency, "test", RetryPolicy.NONE.start(), new DeployReport("test"),
+            transfer);
+    }
+
+    private static void read(Binary binary) {
+        try (InputStream input = binary.getFile().open()) {
+            drain(input);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void drain(InputStream input) throws IOException {
+        byte[] buffer = new byte[8192];
+        while (input.read(buffer) != -1) {
+            // only the transfer matters
+        }
+    }
+}
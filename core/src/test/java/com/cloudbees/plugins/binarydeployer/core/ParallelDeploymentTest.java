@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2017 CloudBees, Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.binarydeployer.core;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import hudson.AbortException;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Adrien Lecharpentier
+ */
+public class ParallelDeploymentTest {
+    @Test(timeout = 30000)
+    public void deploysEveryBinaryOnAtMostConcurrencyThreads() throws Exception {
+        List<Binary> binaries = Lists.newArrayList();
+        for (int i = 0; i < 50; i++) {
+            binaries.add(Binary.from(SyntheticFile.file("file-" + i + ".bin", 1)));
+        }
+        Set<String> deployed = ConcurrentHashMap.newKeySet();
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+
+        ParallelDeployment.deploy(binaries, 4, "test", RetryPolicy.NONE.start(), new DeployReport("test"), binary -> {
+            peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+            Thread.sleep(5);
+            running.decrementAndGet();
+            deployed.add(binary.getName());
+        });
+
+        assertEquals(50, deployed.size());
+        assertTrue("ran " + peak.get() + " transfers at once", peak.get() <= 4);
+    }
+
+    @Test(timeout = 30000)
+    public void failureCancelsTheOtherTransfersAndStopsTheDiscovery() throws Exception {
+        AtomicInteger discovered = new AtomicInteger();
+        Iterable<Binary> endless = () -> new AbstractIterator<Binary>() {
+            @Override
+            protected Binary computeNext() {
+                return Binary.from(SyntheticFile.file("file-" + discovered.incrementAndGet() + ".bin", 1));
+            }
+        };
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+
+        try {
+            ParallelDeployment.deploy(endless, 2, "test", RetryPolicy.NONE.start(), new DeployReport("test"),
+                binary -> {
+                    if (binary.getName().equals("file-1.bin")) {
+                        blocked.countDown();
+                        try {
+                            Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+                        } catch (InterruptedException e) {
+                            interrupted.countDown();
+                            throw e;
+                        }
+                    }
+                    blocked.await();
+                    if (binary.getName().equals("file-2.bin")) {
+                        throw new AbortException("Cannot deploy " + binary.getName());
+                    }
+                });
+            fail("the failure of file-2.bin is not reported");
+        } catch (AbortException e) {
+            assertEquals("Cannot deploy file-2.bin", e.getMessage());
+        }
+        assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+        int count = discovered.get();
+        Thread.sleep(100);
+        assertEquals(count, discovered.get());
+    }
+
+    @Test(timeout = 30000)
+    public void discoveryWaitsForTheTransfers() throws Exception {
+        AtomicInteger discovered = new AtomicInteger();
+        Iterable<Binary> binaries = () -> new AbstractIterator<Binary>() {
+            @Override
+            protected Binary computeNext() {
+                int index = discovered.get();
+                if (index == 1000) {
+                    return endOfData();
+                }
+                return Binary.from(SyntheticFile.file("file-" + discovered.incrementAndGet() + ".bin", 1));
+            }
+        };
+        CountDownLatch released = new CountDownLatch(1);
+        AtomicInteger deployed = new AtomicInteger();
+
+        Thread deployment = new Thread(() -> {
+            try {
+                ParallelDeployment.deploy(binaries, 4, "test", RetryPolicy.NONE.start(), new DeployReport("test"),
+                    binary -> {
+                        released.await();
+                        deployed.incrementAndGet();
+                    });
+            } catch (IOException | InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        });
+        deployment.start();
+        Thread.sleep(200);
+
+        // the binary waiting for a free slot is the only one discovered ahead
+        assertEquals(4 * ParallelDeployment.QUEUED_PER_THREAD + 1, discovered.get());
+        released.countDown();
+        deployment.join();
+        assertEquals(1000, deployed.get());
+    }
+
+    @Test(timeout = 30000)
+    public void failedTransfersAreRetried() throws Exception {
+        Set<String> failed = Sets.newConcurrentHashSet();
+        List<Binary> binaries = Lists.newArrayList(Binary.from(SyntheticFile.file("a.bin", 1)),
+            Binary.from(SyntheticFile.file("b.bin", 1)));
+        DeployReport report = new DeployReport("test");
+
+        ParallelDeployment.deploy(binaries, 2, "test", new RetryPolicy(2, 0, 0, 0, 0).start(), report, binary -> {
+            if (failed.add(binary.getName())) {
+                throw new IOException("Connection reset");
+            }
+            report.deployed(binary);
+        });
+
+        for (DeployReport.Transfer transfer : report.getTransfers()) {
+            assertEquals(1, transfer.getRetries());
+            assertTrue(transfer.isDeployed());
+        }
+        assertEquals(2, report.getTransfers().size());
+    }
+}
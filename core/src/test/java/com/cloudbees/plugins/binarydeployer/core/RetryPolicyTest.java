@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2017 CloudBees, Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.binarydeployer.core;
+
+import hudson.AbortException;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Adrien Lecharpentier
+ */
+public class RetryPolicyTest {
+    private final Binary binary = Binary.from(SyntheticFile.file("file.bin", 1));
+
+    @Test
+    public void failedTransferIsRetriedUntilItSucceeds() throws Exception {
+        DeployReport report = new DeployReport("test");
+        String result = new RetryPolicy(3, 0, 0, 0, 0).start().call(binary, report, attempt -> {
+            if (attempt < 3) {
+                throw new IOException("Connection reset");
+            }
+            return "deployed on attempt " + attempt;
+        });
+
+        assertEquals("deployed on attempt 3", result);
+        assertEquals(2, report.getTransfers().get(0).getRetries());
+    }
+
+    @Test
+    public void lastFailureIsReportedOnceTheAttemptsAreExhausted() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        try {
+            new RetryPolicy(3, 0, 0, 0, 0).start().call(binary, null, attempt -> {
+                throw new IOException("Failure " + attempts.incrementAndGet());
+            });
+            fail("the transfer never succeeded");
+        } catch (IOException e) {
+            assertEquals("Failure 3", e.getMessage());
+        }
+        assertEquals(3, attempts.get());
+    }
+
+    @Test
+    public void abortedTransferIsNotRetried() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        try {
+            new RetryPolicy(5, 0, 0, 0, 0).start().call(binary, null, attempt -> {
+                attempts.incrementAndGet();
+                throw new AbortException("403 Forbidden");
+            });
+            fail("the transfer never succeeded");
+        } catch (AbortException e) {
+            assertEquals("403 Forbidden", e.getMessage());
+        }
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    public void budgetBoundsTheRetriesOfTheWholeDeployment() throws Exception {
+        RetryPolicy.Retries retries = new RetryPolicy(5, 0, 0, 0, 2).start();
+        AtomicInteger attempts = new AtomicInteger();
+        for (int i = 0; i < 3; i++) {
+            try {
+                retries.call(binary, null, attempt -> {
+                    attempts.incrementAndGet();
+                    throw new IOException("Service Unavailable");
+                });
+                fail("the transfer never succeeded");
+            } catch (IOException e) {
+                // the repository is down
+            }
+        }
+        // each binary is attempted once, and the budget adds 2 retries to the whole deployment
+        assertEquals(5, attempts.get());
+    }
+
+    @Test
+    public void backoffDoublesUpToItsMaximum() {
+        RetryPolicy policy = new RetryPolicy(10, 100, 1000, 0, 0);
+        assertEquals(100, policy.backoff(1));
+        assertEquals(200, policy.backoff(2));
+        assertEquals(800, policy.backoff(4));
+        assertEquals(1000, policy.backoff(5));
+        assertEquals(1000, policy.backoff(9));
+    }
+
+    @Test
+    public void jitterOnlyShortensTheBackoff() {
+        RetryPolicy policy = new RetryPolicy(10, 1000, 1000, 50, 0);
+        for (int i = 0; i < 100; i++) {
+            long delay = policy.backoff(1);
+            assertTrue("waited " + delay + " ms", delay > 500 && delay <= 1000);
+        }
+    }
+}
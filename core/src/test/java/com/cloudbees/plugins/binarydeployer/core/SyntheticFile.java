@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2017 CloudBees, Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.binarydeployer.core;
+
+import jenkins.util.VirtualFile;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An in-memory {@link VirtualFile} tree, counting how many times its directories are listed.
+ * <p>
+ * Files are made of zeros, generated while they are read, so a test or a benchmark measures the deployer and not the
+ * disk, and can send more than the heap holds. Shared with the other modules through the test jar of this one.
+ * </p>
+ *
+ * @author Adrien Lecharpentier
+ */
+public class SyntheticFile extends VirtualFile {
+    private final SyntheticFile parent;
+    private final String name;
+    private final SyntheticFile[] children;
+    private final long length;
+    private final AtomicInteger listings;
+
+    private SyntheticFile(SyntheticFile parent, String name, SyntheticFile[] children, long length,
+                          AtomicInteger listings) {
+        this.parent = parent;
+        this.name = name;
+        this.children = children;
+        this.length = length;
+        this.listings = listings;
+    }
+
+    /**
+     * A file which isn't part of a tree, for a test to override, for example to slow down its reads.
+     *
+     * @param name   the name of the file
+     * @param length the length of the file
+     */
+    protected SyntheticFile(String name, long length) {
+        this(null, name, null, length, new AtomicInteger());
+    }
+
+    /**
+     * @param depth  the number of directory levels below the root
+     * @param width  the number of sub-directories of each directory
+     * @param files  the number of files in each directory
+     * @param length the length of each file
+     * @return the root of the tree
+     */
+    public static SyntheticFile tree(int depth, int width, int files, long length) {
+        return directory(null, "root", depth, width, files, length, new AtomicInteger());
+    }
+
+    /**
+     * @param count  the number of files
+     * @param length the length of each file
+     * @return a directory containing only files
+     */
+    public static SyntheticFile flat(int count, long length) {
+        return tree(0, 0, count, length);
+    }
+
+    /**
+     * @param name   the name of the file
+     * @param length the length of the file
+     * @return a file which isn't part of a tree
+     */
+    public static SyntheticFile file(String name, long length) {
+        return new SyntheticFile(name, length);
+    }
+
+    private static SyntheticFile directory(SyntheticFile parent, String name, int depth, int width, int files,
+                                           long length, AtomicInteger listings) {
+        SyntheticFile[] children = new SyntheticFile[files + (depth > 0 ? width : 0)];
+        SyntheticFile directory = new SyntheticFile(parent, name, children, -1, listings);
+        for (int i = 0; i < files; i++) {
+            children[i] = new SyntheticFile(directory, "file-" + i + ".bin", null, length, listings);
+        }
+        for (int i = files; i < children.length; i++) {
+            children[i] = directory(directory, "dir-" + (i - files), depth - 1, width, files, length, listings);
+        }
+        return directory;
+    }
+
+    /**
+     * @return the number of times a directory of the tree was listed
+     */
+    int getListings() {
+        return listings.get();
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public URI toURI() {
+        return URI.create("synthetic:/" + getPath());
+    }
+
+    private String getPath() {
+        return parent == null ? name : parent.getPath() + "/" + name;
+    }
+
+    @Override
+    public VirtualFile getParent() {
+        return parent;
+    }
+
+    @Override
+    public boolean isDirectory() {
+        return children != null;
+    }
+
+    @Override
+    public boolean isFile() {
+        return children == null;
+    }
+
+    @Override
+    public boolean exists() {
+        return true;
+    }
+
+    @Override
+    public VirtualFile[] list() {
+        if (children == null) {
+            return new VirtualFile[0];
+        }
+        listings.incrementAndGet();
+        return Arrays.copyOf(children, children.length, VirtualFile[].class);
+    }
+
+    @Override
+    public String[] list(String glob) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public VirtualFile child(String name) {
+        for (SyntheticFile child : children == null ? new SyntheticFile[0] : children) {
+            if (child.name.equals(name)) {
+                return child;
+            }
+        }
+        return new SyntheticFile(this, name, null, 0, listings);
+    }
+
+    @Override
+    public long length() {
+        return children == null ? length : 0;
+    }
+
+    @Override
+    public long lastModified() {
+        return 0;
+    }
+
+    @Override
+    public boolean canRead() {
+        return true;
+    }
+
+    @Override
+    public InputStream open() throws IOException {
+        if (children != null) {
+            throw new FileNotFoundException(getPath() + " is a directory");
+        }
+        return new InputStream() {
+            private long remaining = length;
+
+            @Override
+            public int read() {
+                if (remaining <= 0) {
+                    return -1;
+                }
+                remaining--;
+                return 0;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (remaining <= 0) {
+                    return -1;
+                }
+                int read = (int) Math.min(len, remaining);
+                Arrays.fill(b, off, off + read, (byte) 0);
+                remaining -= read;
+                return read;
+            }
+        };
+    }
+}
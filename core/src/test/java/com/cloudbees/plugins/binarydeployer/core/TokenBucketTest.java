@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2017 CloudBees, Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.binarydeployer.core;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Adrien Lecharpentier
+ */
+public class TokenBucketTest {
+    @Test(timeout = 30000)
+    public void burstOfOneSecondIsNotDelayed() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(1024 * 1024);
+        long start = System.nanoTime();
+        bucket.take(1024 * 1024);
+        assertTrue(millisSince(start) < 500);
+    }
+
+    @Test(timeout = 30000)
+    public void concurrentTakersShareTheThroughput() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(1024 * 1024);
+        bucket.take(1024 * 1024);
+        CountDownLatch done = new CountDownLatch(4);
+        long start = System.nanoTime();
+        for (int i = 0; i < 4; i++) {
+            new Thread(() -> {
+                try {
+                    for (int chunk = 0; chunk < 4; chunk++) {
+                        bucket.take(64 * 1024);
+                    }
+                    done.countDown();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }).start();
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        // the 1 MB taken after the burst takes a second, whoever takes it
+        long millis = millisSince(start);
+        assertTrue("took " + millis + " ms", millis >= 900 && millis < 3000);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void throughputMustBePositive() {
+        new TokenBucket(0);
+    }
+
+    private static long millisSince(long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2017 CloudBees, Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.binarydeployer.filesystem;
+
+import com.cloudbees.plugins.binarydeployer.core.Binary;
+import com.cloudbees.plugins.binarydeployer.core.DeployReport;
+import com.cloudbees.plugins.binarydeployer.core.LocalCopy;
+import com.cloudbees.plugins.binarydeployer.core.ParallelDeployment;
+import com.cloudbees.plugins.binarydeployer.core.RemoteDeployer;
+import com.cloudbees.plugins.binarydeployer.core.RetryPolicy;
+import hudson.AbortException;
+import jenkins.util.VirtualFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Copies binaries to a directory, from the master or from an agent having the directory mounted.
+ * <p>
+ * Each binary is copied in a temporary file next to its target, then renamed, so readers of the directory never see a
+ * partial file. A binary stored on the local disk is copied with {@link FileChannel#transferTo}, letting the operating
+ * system move the bytes without copying them in the JVM; each chunk is reported to the {@link LocalCopy}, so the copy
+ * is still measured, throttled and counted in the memory budget of the deployment.
+ * </p>
+ *
+ * @author Adrien Lecharpentier
+ */
+class FileSystemCopier implements RemoteDeployer {
+    private static final long serialVersionUID = 1L;
+    private static final Logger log = Logger.getLogger(FileSystemCopier.class.getCanonicalName());
+    /** The bytes copied between two reports, small enough for the throttle to pace the copy. */
+    static final long CHUNK_SIZE = 1024 * 1024;
+
+    private final String directory;
+    private final int concurrency;
+    private final RetryPolicy retryPolicy;
+
+    FileSystemCopier(String directory, int concurrency, RetryPolicy retryPolicy) {
+        this.directory = directory;
+        this.concurrency = concurrency;
+        this.retryPolicy = retryPolicy;
+    }
+
+    @Override
+    public void deploy(Iterable<Binary> binaries, final DeployReport report) throws IOException, InterruptedException {
+        final Path root = Paths.get(directory).toAbsolutePath().normalize();
+        ParallelDeployment.deploy(binaries, concurrency, root.toString(), retryPolicy.start(), report,
+            binary -> copy(root, binary, report));
+    }
+
+    private void copy(Path root, Binary binary, DeployReport report) throws IOException {
+        Path target = root.resolve(binary.getName()).normalize();
+        if (!target.startsWith(root) || target.equals(root)) {
+            throw new AbortException("Cannot deploy " + binary.getName() + " outside of " + root);
+        }
+        Files.createDirectories(target.getParent());
+
+        VirtualFile file = binary.getFile();
+        Path temporary = Files.createTempFile(target.getParent(), "." + target.getFileName(), ".tmp");
+        try {
+            long copied;
+            try (FileChannel output = FileChannel.open(temporary, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING); LocalCopy copy = binary.copyLocally()) {
+                if (copy != null) {
+                    try (FileChannel input = FileChannel.open(copy.getFile().toPath(), StandardOpenOption.READ)) {
+                        copied = transfer(input, output, copy);
+                    }
+                } else {
+                    try (InputStream input = file.open(); ReadableByteChannel channel = Channels.newChannel(input)) {
+                        copied = output.transferFrom(channel, 0, Long.MAX_VALUE);
+                    }
+                }
+                // the content must be on the disk before the rename makes it visible
+                output.force(false);
+            }
+            long expected = file.length();
+            if (expected >= 0 && copied != expected) {
+                throw new IOException("Copied " + copied + " bytes of " + binary.getName() + " instead of " + expected);
+            }
+            setPermissions(temporary, target);
+            move(temporary, target);
+            log.fine("Deployed " + binary.getName() + " to " + root);
+            report.deployed(binary);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Copies by chunks reported to the copy. {@link FileChannel#transferTo} may copy less than asked, for example above
+     * 2GB on Linux.
+     */
+    static long transfer(FileChannel input, FileChannel output, LocalCopy copy) throws IOException {
+        long size = input.size();
+        long position = 0;
+        while (position < size) {
+            long transferred = input.transferTo(position, Math.min(CHUNK_SIZE, size - position), output);
+            if (transferred <= 0) {
+                // the file was truncated while copied, the length check reports it
+                break;
+            }
+            position += transferred;
+            copy.transferred(transferred);
+        }
+        return position;
+    }
+
+    /**
+     * A temporary file is only readable by its owner, so the copy gets the permissions of the file it replaces, or the
+     * ones of its directory without the execute bits.
+     */
+    private static void setPermissions(Path temporary, Path target) throws IOException {
+        if (Files.getFileAttributeView(temporary, PosixFileAttributeView.class) == null) {
+            return;
+        }
+        Set<PosixFilePermission> permissions = EnumSet.noneOf(PosixFilePermission.class);
+        if (Files.exists(target)) {
+            permissions.addAll(Files.getPosixFilePermissions(target));
+        } else {
+            permissions.addAll(Files.getPosixFilePermissions(target.getParent()));
+            permissions.removeAll(EnumSet.of(PosixFilePermission.OWNER_EXECUTE, PosixFilePermission.GROUP_EXECUTE,
+                PosixFilePermission.OTHERS_EXECUTE));
+        }
+        Files.setPosixFilePermissions(temporary, permissions);
+    }
+
+    private static void move(Path temporary, Path target) throws IOException {
+        try {
+            Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            log.fine("Cannot rename " + temporary + " atomically: " + e.getMessage());
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
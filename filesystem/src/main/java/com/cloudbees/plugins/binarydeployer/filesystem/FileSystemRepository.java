@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2017 CloudBees, Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.binarydeployer.filesystem;
+
+import com.cloudbees.plugins.binarydeployer.core.Binary;
+import com.cloudbees.plugins.binarydeployer.core.DeployReport;
+import com.cloudbees.plugins.binarydeployer.core.Repository;
+import com.cloudbees.plugins.binarydeployer.core.RepositoryDescriptor;
+import com.google.common.collect.Lists;
+import hudson.Extension;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.util.FormValidation;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Deploys binaries to a directory of the machine running the deployment, like a mounted network share.
+ *
+ * @author Adrien Lecharpentier
+ */
+public class FileSystemRepository extends Repository {
+    private static final long serialVersionUID = 1L;
+
+    private final String directory;
+    private int concurrency = 4;
+
+    @DataBoundConstructor
+    public FileSystemRepository(String directory) {
+        this.directory = directory.trim();
+    }
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    public int getConcurrency() {
+        return concurrency < 1 ? 4 : concurrency;
+    }
+
+    /**
+     * @param concurrency the number of binaries copied at the same time
+     */
+    @DataBoundSetter
+    public void setConcurrency(int concurrency) {
+        this.concurrency = concurrency;
+    }
+
+    @Override
+    protected void deploy(Iterable<Binary> binaries, Run run) throws IOException, InterruptedException {
+        try {
+            createRemoteDeployer(run).deploy(binaries, DeployReport.of(run, this));
+        } catch (IOException e) {
+            run.setResult(Result.FAILURE);
+            throw e;
+        }
+    }
+
+    @Override
+    protected List<Binary> missing(List<Binary> binaries, Run run) throws IOException {
+        List<Binary> missing = Lists.newArrayList();
+        Path root = Paths.get(directory);
+        for (Binary binary : binaries) {
+            Path target = root.resolve(binary.getName());
+            if (!Files.isRegularFile(target) || Files.size(target) != binary.getFile().length()) {
+                missing.add(binary);
+            }
+        }
+        return missing;
+    }
+
+    @Override
+    public String getTarget() {
+        return Paths.get(directory).toUri().toString();
+    }
+
+    @Override
+    protected FileSystemCopier createRemoteDeployer(Run run) {
+        return new FileSystemCopier(directory, getConcurrency(), getRetryPolicy());
+    }
+
+    @Extension
+    public static class DescriptorImpl extends RepositoryDescriptor {
+        @Override
+        public String getDisplayName() {
+            return Messages.binarydeployer_filesystem_displayName();
+        }
+
+        public FormValidation doCheckDirectory(@QueryParameter String value) {
+            if (value == null || value.trim().isEmpty()) {
+                return FormValidation.error(Messages.binarydeployer_filesystem_directoryRequired());
+            }
+            if (!Paths.get(value.trim()).isAbsolute()) {
+                return FormValidation.error(Messages.binarydeployer_filesystem_directoryNotAbsolute());
+            }
+            return FormValidation.ok();
+        }
+
+        public FormValidation doCheckConcurrency(@QueryParameter String value) {
+            return FormValidation.validatePositiveInteger(value);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2017 CloudBees, Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.binarydeployer.filesystem;
+
+import com.cloudbees.plugins.binarydeployer.core.Binary;
+import com.cloudbees.plugins.binarydeployer.core.DeployReport;
+import com.cloudbees.plugins.binarydeployer.core.RetryPolicy;
+import com.google.common.collect.Lists;
+import hudson.AbortException;
+import jenkins.util.VirtualFile;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * @author Adrien Lecharpentier
+ */
+public class FileSystemCopierTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private Path directory;
+    private File source;
+
+    @Before
+    public void setUp() throws IOException {
+        assumeTrue(Files.getFileStore(tmp.getRoot().toPath()).supportsFileAttributeView("posix"));
+        directory = tmp.newFolder("repository").toPath();
+        source = tmp.newFile("app.jar");
+        Files.write(source.toPath(), "content".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void copyGetsThePermissionsOfItsDirectory() throws Exception {
+        Files.setPosixFilePermissions(directory, PosixFilePermissions.fromString("rwxr-x---"));
+
+        deploy(Binary.from(VirtualFile.forFile(source)));
+
+        Path copy = directory.resolve("app.jar");
+        assertEquals("content", new String(Files.readAllBytes(copy), StandardCharsets.UTF_8));
+        assertEquals("rw-r-----", PosixFilePermissions.toString(Files.getPosixFilePermissions(copy)));
+    }
+
+    @Test
+    public void copyKeepsThePermissionsOfTheFileItReplaces() throws Exception {
+        Path previous = Files.write(directory.resolve("app.jar"), "previous".getBytes(StandardCharsets.UTF_8));
+        Files.setPosixFilePermissions(previous, PosixFilePermissions.fromString("rw-rw-r--"));
+
+        deploy(Binary.from(VirtualFile.forFile(source)));
+
+        assertEquals("content", new String(Files.readAllBytes(previous), StandardCharsets.UTF_8));
+        assertEquals("rw-rw-r--", PosixFilePermissions.toString(Files.getPosixFilePermissions(previous)));
+    }
+
+    @Test
+    public void localCopyIsMeasured() throws Exception {
+        DeployReport report = new DeployReport(directory.toString());
+        new FileSystemCopier(directory.toString(), 2, RetryPolicy.NONE).deploy(
+            report.meter(Lists.newArrayList(Binary.from(VirtualFile.forFile(source)))), report);
+        report.finished(1000);
+
+        assertEquals(1, report.getFileCount());
+        assertEquals("content".length(), report.getTotalBytes());
+    }
+
+    @Test(expected = AbortException.class)
+    public void binaryOutsideOfTheDirectoryIsRefused() throws Exception {
+        deploy(Binary.from(VirtualFile.forFile(source), "../"));
+    }
+
+    private void deploy(Binary binary) throws IOException, InterruptedException {
+        new FileSystemCopier(directory.toString(), 2, RetryPolicy.NONE).deploy(Lists.newArrayList(binary),
+            new DeployReport(directory.toString()));
+    }
+}
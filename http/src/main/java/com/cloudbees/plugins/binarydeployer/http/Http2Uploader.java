@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2017 CloudBees, Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.binarydeployer.http;
+
+import com.cloudbees.plugins.binarydeployer.core.ClientCache;
+import hudson.util.Secret;
+import jenkins.util.VirtualFile;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.async.methods.SimpleResponseConsumer;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.nio.AsyncRequestProducer;
+import org.apache.hc.core5.http.nio.entity.StringAsyncEntityProducer;
+import org.apache.hc.core5.http.nio.support.AsyncRequestBuilder;
+import org.apache.hc.core5.http2.config.H2Config;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Uploads binaries over HTTP/2, all the uploads of a location sharing a single connection.
+ * <p>
+ * Each upload is a stream of the connection. The number of streams opened by a deployment is bound by its number of
+ * concurrent uploads, and the server can lower it further. Plain {@code http} locations are reached with HTTP/2 prior
+ * knowledge, {@code https} ones negotiate it with ALPN. Bodies aren't compressed over HTTP/2.
+ * </p>
+ * <p>
+ * The I/O thread of the client serves every stream, so the files are opened and read by the threads of the
+ * deployment, which wait for their turn on the memory budget or the bandwidth limit without holding the other
+ * uploads. As a body cannot be sent twice, the credentials are sent preemptively rather than after a challenge.
+ * </p>
+ *
+ * @author Adrien Lecharpentier
+ */
+class Http2Uploader extends HttpDeployer {
+    private static final long serialVersionUID = 1L;
+    private static final Logger log = Logger.getLogger(Http2Uploader.class.getCanonicalName());
+
+    /**
+     * Clients keep their connection alive between deployments to the same location.
+     */
+    private static final ClientCache<CloseableHttpAsyncClient> clients = new ClientCache<>("HTTP/2", 32,
+        TimeUnit.MINUTES.toMillis(10), CloseableHttpAsyncClient::close);
+
+    Http2Uploader(HttpRepository repository, String username, Secret password) {
+        super(repository, username, password);
+    }
+
+    @Override
+    protected Connection connect() throws IOException {
+        String authorization = username == null ? null : "Basic " + Base64.getEncoder().encodeToString(
+            (username + ":" + password.getPlainText()).getBytes(StandardCharsets.UTF_8));
+        return new MultiplexedConnection(clients.acquire(remoteLocation, "", credentials(), this::createClient),
+            authorization);
+    }
+
+    private CloseableHttpAsyncClient createClient() {
+        CloseableHttpAsyncClient client = HttpAsyncClients.customHttp2()
+            .setH2Config(H2Config.custom().setPushEnabled(false).build())
+            .disableAutomaticRetries()
+            .build();
+        client.start();
+        return client;
+    }
+
+    private static final class MultiplexedConnection implements Connection {
+        private final ClientCache.Lease<CloseableHttpAsyncClient> lease;
+        private final String authorization;
+        private final Set<Future<SimpleHttpResponse>> inFlight = ConcurrentHashMap.newKeySet();
+
+        private MultiplexedConnection(ClientCache.Lease<CloseableHttpAsyncClient> lease, String authorization) {
+            this.lease = lease;
+            this.authorization = authorization;
+        }
+
+        @Override
+        public Response send(String method, String uri, VirtualFile file, boolean compress)
+            throws IOException, InterruptedException {
+            if (compress) {
+                log.fine("Sending " + uri + " uncompressed, compression is only supported over HTTP/1.1");
+            }
+            // opened here rather than by the I/O thread, which would wait for the memory budget with every stream
+            try (InputStream input = file.open()) {
+                VirtualFileAsyncEntity entity = new VirtualFileAsyncEntity(file.length());
+                Future<SimpleHttpResponse> future = submit(request(method, uri).setEntity(entity).build());
+                try {
+                    entity.copy(input);
+                } catch (IOException e) {
+                    if (!entity.isClosed()) {
+                        cancel(future);
+                        throw e;
+                    }
+                    // the request ended before its whole body was sent, its response or its failure tells why
+                } catch (InterruptedException e) {
+                    cancel(future);
+                    throw e;
+                }
+                return await(future);
+            }
+        }
+
+        @Override
+        public Response send(String method, String uri, String text) throws IOException, InterruptedException {
+            return await(submit(request(method, uri)
+                .setEntity(new StringAsyncEntityProducer(text, ContentType.TEXT_PLAIN)).build()));
+        }
+
+        @Override
+        public Response head(String uri) throws IOException, InterruptedException {
+            return await(submit(request("HEAD", uri).build()));
+        }
+
+        private AsyncRequestBuilder request(String method, String uri) {
+            AsyncRequestBuilder request = AsyncRequestBuilder.create(method).setUri(uri);
+            return authorization == null ? request : request.addHeader("Authorization", authorization);
+        }
+
+        private Future<SimpleHttpResponse> submit(AsyncRequestProducer request) {
+            Future<SimpleHttpResponse> future = lease.get().execute(request, SimpleResponseConsumer.create(), null);
+            inFlight.add(future);
+            return future;
+        }
+
+        private Response await(Future<SimpleHttpResponse> future) throws IOException, InterruptedException {
+            try {
+                SimpleHttpResponse response = future.get();
+                Response result = new Response(response.getCode(),
+                    response.getCode() + " " + response.getReasonPhrase());
+                for (Header header : response.getHeaders()) {
+                    result.header(header.getName(), header.getValue());
+                }
+                return result;
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException("Cannot send the request", e.getCause());
+            } catch (InterruptedException e) {
+                future.cancel(true);
+                throw e;
+            } finally {
+                inFlight.remove(future);
+            }
+        }
+
+        private void cancel(Future<SimpleHttpResponse> future) {
+            future.cancel(true);
+            inFlight.remove(future);
+        }
+
+        @Override
+        public void close() {
+            // the client is shared, cancel the streams still open so they don't hold the connection
+            for (Future<SimpleHttpResponse> request : inFlight) {
+                request.cancel(true);
+            }
+            lease.close();
+        }
+    }
+}
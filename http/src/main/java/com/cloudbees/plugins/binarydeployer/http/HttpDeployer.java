@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) 2017 CloudBees, Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.binarydeployer.http;
+
+import com.cloudbees.plugins.binarydeployer.core.Binary;
+import com.cloudbees.plugins.binarydeployer.core.ChecksumFile;
+import com.cloudbees.plugins.binarydeployer.core.Checksums;
+import com.cloudbees.plugins.binarydeployer.core.DeployReport;
+import com.cloudbees.plugins.binarydeployer.core.ParallelDeployment;
+import com.cloudbees.plugins.binarydeployer.core.RemoteDeployer;
+import com.google.common.collect.Lists;
+import hudson.AbortException;
+import hudson.util.Secret;
+import jenkins.util.VirtualFile;
+
+import javax.annotation.CheckForNull;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+/**
+ * Uploads binaries to an HTTP location, with the configuration of a {@link HttpRepository} and its resolved
+ * credentials.
+ * <p>
+ * It runs on the master for regular deployments, and is sent to the agent when deploying from there. The protocol is
+ * left to the implementations, which only send requests through a {@link Connection}.
+ * </p>
+ *
+ * @author Adrien Lecharpentier
+ */
+abstract class HttpDeployer implements RemoteDeployer {
+    private static final long serialVersionUID = 1L;
+    private static final Logger log = Logger.getLogger(HttpDeployer.class.getCanonicalName());
+
+    protected final HttpRepository repository;
+    protected final String remoteLocation;
+    protected final String username;
+    protected final Secret password;
+    protected final int concurrency;
+
+    /**
+     * @param repository the configuration of the uploads
+     * @param username   the user to authenticate as, or null to upload anonymously
+     * @param password   the password of the user
+     */
+    HttpDeployer(HttpRepository repository, String username, Secret password) {
+        this.repository = repository;
+        this.remoteLocation = repository.getRemoteLocation();
+        this.username = username;
+        this.password = password;
+        this.concurrency = repository.getConcurrency();
+    }
+
+    /**
+     * @return a connection to the remote location, to close once the deployment is done
+     * @throws IOException if the client cannot be created
+     */
+    protected abstract Connection connect() throws IOException;
+
+    /**
+     * @return the credentials identifying the shared clients, so a client is never reused once they changed, or null
+     * when uploading anonymously
+     */
+    @CheckForNull
+    protected String credentials() {
+        return username == null ? null : username + ":" + password.getPlainText();
+    }
+
+    @Override
+    public void deploy(Iterable<Binary> binaries, final DeployReport report) throws IOException, InterruptedException {
+        try (final Connection connection = connect()) {
+            ParallelDeployment.deploy(binaries, concurrency, remoteLocation, repository.getRetryPolicy().start(),
+                report, binary -> upload(connection, binary, report));
+        }
+    }
+
+    /**
+     * @param binaries the binaries expected in the remote location
+     * @return the binaries which are not available, or whose length differs
+     * @throws IOException if the remote location cannot be reached
+     */
+    List<Binary> missing(List<Binary> binaries) throws IOException {
+        List<Binary> missing = Lists.newArrayList();
+        try (Connection connection = connect()) {
+            for (Binary binary : binaries) {
+                Response response = connection.head(remoteLocation + binary.getName());
+                if (!response.isSuccessful() || !sameLength(binary, response)) {
+                    log.fine(binary.getName() + " is not available on " + remoteLocation + " anymore");
+                    missing.add(binary);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while verifying the files on " + remoteLocation, e);
+        }
+        return missing;
+    }
+
+    private boolean sameLength(Binary binary, Response response) throws IOException {
+        String contentLength = response.header("Content-Length");
+        return contentLength == null || Long.parseLong(contentLength) == binary.getFile().length();
+    }
+
+    private void upload(Connection connection, Binary binary, DeployReport report)
+        throws IOException, InterruptedException {
+        ChecksumFile file = new ChecksumFile(binary.getFile());
+        boolean compress = repository.shouldCompress(binary.getName());
+        Response response = connection.send(repository.getMethod(), remoteLocation + binary.getName(), file,
+            compress);
+        report.status(binary, response.status);
+        checkStatus(binary.getName(), response);
+        if (!compress) {
+            // the server computes its checksums on the gzip body it received, not on the content of the file
+            verify(binary, file.getChecksums(), response);
+        }
+
+        if (repository.isChecksumFiles()) {
+            uploadChecksums(connection, binary, file.getChecksums());
+        }
+        log.fine("Deployed " + binary.getName() + " to " + remoteLocation);
+        report.deployed(binary);
+    }
+
+    private void checkStatus(String name, Response response) throws IOException {
+        if (!response.isSuccessful()) {
+            log.warning("Cannot deploy file " + name + ". Response from target was " + response.status);
+            if (response.status >= 500 || response.status == 408 || response.status == 429) {
+                throw new IOException(response.statusLine);
+            }
+            throw new AbortException(response.statusLine);
+        }
+    }
+
+    /**
+     * Compares the checksums of what was sent with the ones the repository computed, when it gives them back. They
+     * cannot be sent before the content, as they are computed while it is sent.
+     */
+    private void verify(Binary binary, Checksums checksums, Response response) throws IOException {
+        if (checksums == null) {
+            log.warning("Cannot verify " + binary.getName() + ", its content was not entirely sent");
+            return;
+        }
+        // the headers of Artifactory and Nexus, an ETag is an opaque version of the resource for the others
+        checksums.verify(binary, "md5", response.header("X-Checksum-Md5"));
+        checksums.verify(binary, "sha1", response.header("X-Checksum-Sha1"));
+        checksums.verify(binary, "sha256", response.header("X-Checksum-Sha256"));
+    }
+
+    private void uploadChecksums(Connection connection, Binary binary, Checksums checksums)
+        throws IOException, InterruptedException {
+        if (checksums == null) {
+            return;
+        }
+        for (Map.Entry<String, String> checksum : checksums.bySidecarExtension().entrySet()) {
+            String name = binary.getName() + "." + checksum.getKey();
+            checkStatus(name, connection.send(repository.getMethod(), remoteLocation + name, checksum.getValue()));
+        }
+    }
+
+    /**
+     * Sends the requests of a deployment, which can be running at the same time.
+     */
+    interface Connection extends Closeable {
+        /**
+         * @param method   the method of the request
+         * @param uri      the location to upload to
+         * @param file     the content to upload, which may be read several times
+         * @param compress whether the content must be sent gzip compressed
+         */
+        Response send(String method, String uri, VirtualFile file, boolean compress)
+            throws IOException, InterruptedException;
+
+        Response send(String method, String uri, String text) throws IOException, InterruptedException;
+
+        Response head(String uri) throws IOException, InterruptedException;
+
+        /**
+         * Aborts the requests still in flight and releases the client.
+         */
+        @Override
+        void close() throws IOException;
+    }
+
+    /**
+     * The status and headers of a response, read before its connection is released.
+     */
+    static final class Response {
+        private final int status;
+        private final String statusLine;
+        private final Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+        Response(int status, String statusLine) {
+            this.status = status;
+            this.statusLine = statusLine;
+        }
+
+        /**
+         * Only the first value of a header is kept.
+         */
+        Response header(String name, String value) {
+            headers.putIfAbsent(name, value);
+            return this;
+        }
+
+        @CheckForNull
+        String header(String name) {
+            return headers.get(name);
+        }
+
+        int getStatus() {
+            return status;
+        }
+
+        boolean isSuccessful() {
+            return status >= 200 && status < 300;
+        }
+    }
+}
@@ -25,6 +25,8 @@
 package com.cloudbees.plugins.binarydeployer.http;
 
 import com.cloudbees.plugins.binarydeployer.core.Binary;
+import com.cloudbees.plugins.binarydeployer.core.DeployReport;
+import com.cloudbees.plugins.binarydeployer.core.PathFilter;
 import com.cloudbees.plugins.binarydeployer.core.Repository;
 import com.cloudbees.plugins.binarydeployer.core.RepositoryDescriptor;
 import com.cloudbees.plugins.credentials.CredentialsProvider;
@@ -34,41 +36,43 @@ import com.cloudbees.plugins.credentials.domains.DomainRequirement;
 import com.google.common.collect.Lists;
 import hudson.AbortException;
 import hudson.Extension;
+import hudson.Util;
 import hudson.model.ItemGroup;
 import hudson.model.Result;
 import hudson.model.Run;
 import hudson.security.ACL;
 import hudson.util.FormValidation;
 import hudson.util.ListBoxModel;
-import org.apache.http.auth.AuthScope;
-import org.apache.http.auth.UsernamePasswordCredentials;
-import org.apache.http.client.methods.CloseableHttpResponse;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.BufferedHttpEntity;
-import org.apache.http.entity.InputStreamEntity;
-import org.apache.http.impl.client.BasicCredentialsProvider;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
-import org.apache.http.impl.client.HttpClients;
+import hudson.util.Secret;
 import org.kohsuke.stapler.AncestorInPath;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
 
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.List;
-import java.util.logging.Logger;
+import java.util.regex.Pattern;
 
 /**
  * @author Adrien Lecharpentier
  */
 public class HttpRepository extends Repository {
-
-    private static final Logger log = Logger.getLogger(HttpRepository.class.getCanonicalName());
+    private static final long serialVersionUID = 1L;
+    private static final Pattern COMPRESSED_FORMAT = Pattern.compile(
+        ".*\\.(zip|gz|tgz|bz2|tbz2|xz|txz|7z|zst|lz4|jar|war|ear|hpi|jpi|apk|aar|whl|nupkg|rpm|deb|png|jpe?g|gif|mp4)",
+        Pattern.CASE_INSENSITIVE);
 
     private final String remoteLocation;
     private final String credentialsId;
+    private int concurrency = 1;
+    private int maxConnectionsPerHost;
+    private boolean compress;
+    private String compressionIncludes;
+    private boolean checksumFiles;
+    private String method;
+    private boolean http2;
 
     @DataBoundConstructor
     public HttpRepository(String remoteLocation, String credentialsId) {
@@ -85,58 +89,139 @@ public class HttpRepository extends Repository {
         return credentialsId;
     }
 
+    public int getConcurrency() {
+        return concurrency < 1 ? 1 : concurrency;
+    }
+
+    @DataBoundSetter
+    public void setConcurrency(int concurrency) {
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * @return the maximum number of connections opened to the same host, defaults to {@link #getConcurrency()}
+     */
+    public int getMaxConnectionsPerHost() {
+        return maxConnectionsPerHost < 1 ? getConcurrency() : maxConnectionsPerHost;
+    }
+
+    @DataBoundSetter
+    public void setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+    }
+
+    public boolean isCompress() {
+        return compress;
+    }
+
+    /**
+     * @param compress send the matching binaries gzip compressed, with a {@code Content-Encoding} header
+     */
+    @DataBoundSetter
+    public void setCompress(boolean compress) {
+        this.compress = compress;
+    }
+
+    public String getCompressionIncludes() {
+        return compressionIncludes;
+    }
+
+    /**
+     * @param compressionIncludes the Ant-style patterns, separated by commas, of the binaries to compress
+     */
+    @DataBoundSetter
+    public void setCompressionIncludes(String compressionIncludes) {
+        this.compressionIncludes = Util.fixEmptyAndTrim(compressionIncludes);
+    }
+
+    public boolean isChecksumFiles() {
+        return checksumFiles;
+    }
+
+    /**
+     * @param checksumFiles upload the {@code .md5}, {@code .sha1} and {@code .sha256} files of each binary next to it
+     */
+    @DataBoundSetter
+    public void setChecksumFiles(boolean checksumFiles) {
+        this.checksumFiles = checksumFiles;
+    }
+
+    /**
+     * @return the HTTP method the binaries are uploaded with, {@code POST} by default
+     */
+    public String getMethod() {
+        return method == null ? "POST" : method;
+    }
+
+    /**
+     * @param method {@code POST} or {@code PUT}, the latter for servers addressing the binaries by their URL
+     */
+    @DataBoundSetter
+    public void setMethod(String method) {
+        this.method = Util.fixEmptyAndTrim(method);
+    }
+
+    public boolean isHttp2() {
+        return http2;
+    }
+
+    /**
+     * @param http2 upload over HTTP/2, multiplexing the concurrent uploads on a single connection
+     */
+    @DataBoundSetter
+    public void setHttp2(boolean http2) {
+        this.http2 = http2;
+    }
+
+    /**
+     * Binaries in an already compressed format are never compressed again, whatever the patterns.
+     *
+     * @param name the name of the binary
+     * @return whether the binary must be compressed when uploaded
+     */
+    boolean shouldCompress(String name) {
+        if (!compress || COMPRESSED_FORMAT.matcher(name).matches()) {
+            return false;
+        }
+        return PathFilter.of(compressionIncludes, null).includes(name);
+    }
+
     @Override
-    protected void deploy(List<Binary> binaries, Run run) throws IOException {
-        CloseableHttpClient client = null;
+    protected void deploy(Iterable<Binary> binaries, Run run) throws IOException, InterruptedException {
         try {
-            if (credentialsId == null || credentialsId.isEmpty()) {
-                client = HttpClients.createDefault();
-            } else {
-                BasicCredentialsProvider credentials = new BasicCredentialsProvider();
-                StandardUsernamePasswordCredentials credentialById = CredentialsProvider.findCredentialById(credentialsId,
-                    StandardUsernamePasswordCredentials.class, run, Lists.<DomainRequirement>newArrayList());
-                if (credentialById == null) {
-                    throw new AbortException("Cannot find credentials configured in job.");
-                }
-                credentials.setCredentials(AuthScope.ANY, new UsernamePasswordCredentials(
-                    credentialById.getUsername(), credentialById.getPassword().getPlainText()
-                ));
-
-                client = HttpClients.custom()
-                    .setDefaultCredentialsProvider(credentials)
-                    .disableAutomaticRetries()
-                    .setRetryHandler(new DefaultHttpRequestRetryHandler(0, false))
-                    .build();
-            }
+            createRemoteDeployer(run).deploy(binaries, DeployReport.of(run, this));
+        } catch (IOException e) {
+            run.setResult(Result.FAILURE);
+            throw e;
+        }
+    }
 
-            for (Binary binary : binaries) {
-                BufferedHttpEntity entity = new BufferedHttpEntity(new InputStreamEntity(binary.getFile().open(),
-                    binary.getFile().length()));
-                HttpPost post = new HttpPost(remoteLocation + binary.getName());
-                post.setEntity(entity);
-
-                CloseableHttpResponse response = null;
-                try {
-                    response = client.execute(post);
-                    int statusCode = response.getStatusLine().getStatusCode();
-                    if (statusCode >= 200 && statusCode < 300) {
-                        log.fine("Deployed " + binary.getName() + " to " + remoteLocation);
-                    } else {
-                        log.warning("Cannot deploy file " + binary.getName() + ". Response from target was " + statusCode);
-                        run.setResult(Result.FAILURE);
-                        throw new IOException(response.getStatusLine().toString());
-                    }
-                } finally {
-                    if (response != null) {
-                        response.close();
-                    }
-                }
-            }
-        } finally {
-            if (client != null) {
-                client.close();
-            }
+    @Override
+    protected List<Binary> missing(List<Binary> binaries, Run run) throws IOException {
+        return createRemoteDeployer(run).missing(binaries);
+    }
+
+    @Override
+    public String getTarget() {
+        return remoteLocation;
+    }
+
+    @Override
+    protected HttpDeployer createRemoteDeployer(Run run) throws IOException {
+        if (credentialsId == null || credentialsId.isEmpty()) {
+            return createRemoteDeployer(null, null);
+        }
+
+        StandardUsernamePasswordCredentials credentialById = CredentialsProvider.findCredentialById(credentialsId,
+            StandardUsernamePasswordCredentials.class, run, Lists.<DomainRequirement>newArrayList());
+        if (credentialById == null) {
+            throw new AbortException("Cannot find credentials configured in job.");
         }
+        return createRemoteDeployer(credentialById.getUsername(), credentialById.getPassword());
+    }
+
+    private HttpDeployer createRemoteDeployer(String username, Secret password) {
+        return http2 ? new Http2Uploader(this, username, password) : new HttpUploader(this, username, password);
     }
 
     @Extension
@@ -155,6 +240,21 @@ public class HttpRepository extends Repository {
             }
         }
 
+        public FormValidation doCheckConcurrency(@QueryParameter String value) {
+            return FormValidation.validatePositiveInteger(value);
+        }
+
+        public FormValidation doCheckMaxConnectionsPerHost(@QueryParameter String value) {
+            if (value == null || value.isEmpty()) {
+                return FormValidation.ok();
+            }
+            return FormValidation.validatePositiveInteger(value);
+        }
+
+        public ListBoxModel doFillMethodItems() {
+            return new ListBoxModel(new ListBoxModel.Option("POST"), new ListBoxModel.Option("PUT"));
+        }
+
         public ListBoxModel doFillCredentialsIdItems(@AncestorInPath ItemGroup context) {
             List<StandardUsernamePasswordCredentials> credentials = CredentialsProvider.lookupCredentials(
                 StandardUsernamePasswordCredentials.class, context, ACL.SYSTEM, Lists.<DomainRequirement>newArrayList());
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2017 CloudBees, Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.binarydeployer.http;
+
+import com.cloudbees.plugins.binarydeployer.core.ClientCache;
+import hudson.util.Secret;
+import jenkins.util.VirtualFile;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.entity.GzipCompressingEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Uploads binaries over HTTP/1.1, each connection carrying one upload at a time.
+ *
+ * @author Adrien Lecharpentier
+ */
+class HttpUploader extends HttpDeployer {
+    private static final long serialVersionUID = 1L;
+    private static final int VALIDATE_AFTER_INACTIVITY = 2000;
+    private static final long IDLE_CONNECTION_TIMEOUT = TimeUnit.SECONDS.toMillis(30);
+
+    /**
+     * Clients keep their connections alive between deployments to the same location.
+     */
+    private static final ClientCache<CloseableHttpClient> clients = new ClientCache<>("HTTP", 32,
+        TimeUnit.MINUTES.toMillis(10), CloseableHttpClient::close);
+
+    HttpUploader(HttpRepository repository, String username, Secret password) {
+        super(repository, username, password);
+    }
+
+    @Override
+    protected Connection connect() throws IOException {
+        return new PooledConnection(clients.acquire(remoteLocation,
+            concurrency + "|" + repository.getMaxConnectionsPerHost(), credentials(), this::createClient));
+    }
+
+    private CloseableHttpClient createClient() {
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(concurrency);
+        connectionManager.setDefaultMaxPerRoute(repository.getMaxConnectionsPerHost());
+        connectionManager.setValidateAfterInactivity(VALIDATE_AFTER_INACTIVITY);
+
+        // wait for the server to accept the request before streaming the body, so an authentication challenge or a
+        // rejection doesn't cost a full upload; the retry policy of the repository is the only one retrying it
+        HttpClientBuilder builder = HttpClients.custom()
+            .setConnectionManager(connectionManager)
+            .evictIdleConnections(IDLE_CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS)
+            .setDefaultRequestConfig(RequestConfig.custom().setExpectContinueEnabled(true).build())
+            .disableAutomaticRetries();
+        if (username == null) {
+            return builder.build();
+        }
+
+        BasicCredentialsProvider credentials = new BasicCredentialsProvider();
+        credentials.setCredentials(AuthScope.ANY, new UsernamePasswordCredentials(username, password.getPlainText()));
+
+        return builder
+            .setDefaultCredentialsProvider(credentials)
+            .build();
+    }
+
+    private static final class PooledConnection implements Connection {
+        private final ClientCache.Lease<CloseableHttpClient> lease;
+        private final Set<HttpUriRequest> inFlight = ConcurrentHashMap.newKeySet();
+
+        private PooledConnection(ClientCache.Lease<CloseableHttpClient> lease) {
+            this.lease = lease;
+        }
+
+        @Override
+        public Response send(String method, String uri, VirtualFile file, boolean compress) throws IOException {
+            HttpEntity entity = new VirtualFileEntity(file);
+            if (compress) {
+                // compressed on the fly while streamed, sent chunked with a gzip Content-Encoding
+                entity = new GzipCompressingEntity(entity);
+            }
+            return execute(RequestBuilder.create(method).setUri(uri).setEntity(entity).build());
+        }
+
+        @Override
+        public Response send(String method, String uri, String text) throws IOException {
+            return execute(RequestBuilder.create(method).setUri(uri)
+                .setEntity(new StringEntity(text, ContentType.TEXT_PLAIN)).build());
+        }
+
+        @Override
+        public Response head(String uri) throws IOException {
+            return execute(new HttpHead(uri));
+        }
+
+        private Response execute(HttpUriRequest request) throws IOException {
+            inFlight.add(request);
+            try (CloseableHttpResponse response = lease.get().execute(request)) {
+                Response result = new Response(response.getStatusLine().getStatusCode(),
+                    response.getStatusLine().toString());
+                for (Header header : response.getAllHeaders()) {
+                    result.header(header.getName(), header.getValue());
+                }
+                return result;
+            } finally {
+                inFlight.remove(request);
+            }
+        }
+
+        @Override
+        public void close() {
+            // the client is shared, abort the uploads still in flight so their connections are released
+            for (HttpUriRequest request : inFlight) {
+                request.abort();
+            }
+            lease.close();
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2017 CloudBees, Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.binarydeployer.http;
+
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.nio.AsyncEntityProducer;
+import org.apache.hc.core5.http.nio.DataStreamChannel;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Set;
+
+/**
+ * Streams the content of a file as the body of an asynchronous request.
+ * <p>
+ * The I/O thread of the client is shared by every stream of the connection, so it never reads the file: the thread
+ * sending the request {@link #copy(InputStream) copies} the file into a bounded buffer, waiting while it is full, and
+ * the I/O thread only sends what the buffer holds. Opening, reading or throttling the file doesn't stall the other
+ * streams. As the content goes through only once, the request cannot be sent again.
+ * </p>
+ *
+ * @author Adrien Lecharpentier
+ */
+class VirtualFileAsyncEntity implements AsyncEntityProducer {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final long length;
+    /** The content not sent yet, written from its start. */
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private DataStreamChannel channel;
+    /** Whether the whole content is in the buffer. */
+    private boolean complete;
+    private boolean ended;
+    /** Whether the request is over, so nothing more can be sent. */
+    private boolean closed;
+
+    /**
+     * @param length the length of the content, or -1 if it is unknown
+     */
+    VirtualFileAsyncEntity(long length) {
+        this.length = length;
+    }
+
+    /**
+     * Copies the content of the request, on the calling thread.
+     *
+     * @param input the content, left open
+     * @throws IOException          if the content cannot be read, or the request is over before all of it is sent
+     * @throws InterruptedException if interrupted while waiting for the buffer to be sent
+     */
+    void copy(InputStream input) throws IOException, InterruptedException {
+        byte[] chunk = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = input.read(chunk)) != -1) {
+            for (int offset = 0; offset < read; ) {
+                offset += write(chunk, offset, read - offset);
+            }
+        }
+        DataStreamChannel channel;
+        synchronized (this) {
+            complete = true;
+            channel = this.channel;
+        }
+        if (channel != null) {
+            channel.requestOutput();
+        }
+    }
+
+    private int write(byte[] chunk, int offset, int length) throws IOException, InterruptedException {
+        DataStreamChannel channel;
+        int written;
+        synchronized (this) {
+            while (!closed && !buffer.hasRemaining()) {
+                wait();
+            }
+            if (closed) {
+                throw new IOException("The request ended before its content was sent");
+            }
+            written = Math.min(length, buffer.remaining());
+            buffer.put(chunk, offset, written);
+            channel = this.channel;
+        }
+        // the channel asks for the content once the request is started, then whenever the stream can send more
+        if (channel != null) {
+            channel.requestOutput();
+        }
+        return written;
+    }
+
+    /**
+     * @return whether the request is over, so a failed {@link #copy(InputStream)} was only a consequence
+     */
+    synchronized boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return false;
+    }
+
+    @Override
+    public long getContentLength() {
+        return length;
+    }
+
+    @Override
+    public String getContentType() {
+        return ContentType.APPLICATION_OCTET_STREAM.toString();
+    }
+
+    @Override
+    public String getContentEncoding() {
+        return null;
+    }
+
+    @Override
+    public boolean isChunked() {
+        return length < 0;
+    }
+
+    @Override
+    public Set<String> getTrailerNames() {
+        return null;
+    }
+
+    /**
+     * @return the bytes ready to be sent, so the stream doesn't ask for output while waiting for the file
+     */
+    @Override
+    public synchronized int available() {
+        if (buffer.position() > 0) {
+            return buffer.position();
+        }
+        return complete && !ended ? 1 : 0;
+    }
+
+    @Override
+    public synchronized void produce(DataStreamChannel channel) throws IOException {
+        this.channel = channel;
+        if (buffer.position() > 0) {
+            buffer.flip();
+            channel.write(buffer);
+            buffer.compact();
+            notifyAll();
+        }
+        if (complete && !ended && buffer.position() == 0) {
+            ended = true;
+            channel.endStream();
+        }
+    }
+
+    @Override
+    public void failed(Exception cause) {
+        releaseResources();
+    }
+
+    @Override
+    public synchronized void releaseResources() {
+        closed = true;
+        notifyAll();
+    }
+}
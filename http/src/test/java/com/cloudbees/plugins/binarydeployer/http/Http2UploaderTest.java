@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2017 CloudBees, Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.binarydeployer.http;
+
+import com.cloudbees.plugins.binarydeployer.core.Binary;
+import com.cloudbees.plugins.binarydeployer.core.DeployReport;
+import com.cloudbees.plugins.binarydeployer.core.MemoryBudget;
+import com.cloudbees.plugins.binarydeployer.core.SyntheticFile;
+import com.google.common.collect.Lists;
+import jenkins.util.VirtualFile;
+import org.apache.hc.core5.http.EntityDetails;
+import org.apache.hc.core5.http.HttpException;
+import org.apache.hc.core5.http.HttpRequest;
+import org.apache.hc.core5.http.Message;
+import org.apache.hc.core5.http.impl.bootstrap.HttpAsyncServer;
+import org.apache.hc.core5.http.nio.AsyncRequestConsumer;
+import org.apache.hc.core5.http.nio.AsyncServerRequestHandler;
+import org.apache.hc.core5.http.nio.entity.StringAsyncEntityConsumer;
+import org.apache.hc.core5.http.nio.support.AbstractServerExchangeHandler;
+import org.apache.hc.core5.http.nio.support.AsyncResponseBuilder;
+import org.apache.hc.core5.http.nio.support.BasicRequestConsumer;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.http2.impl.nio.bootstrap.H2ServerBootstrap;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.reactor.ListenerEndpoint;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Uploads to a local HTTP/2 server, all the streams sharing the I/O thread of the client.
+ *
+ * @author Adrien Lecharpentier
+ */
+public class Http2UploaderTest {
+    private final Map<String, Integer> received = new ConcurrentHashMap<>();
+    private HttpAsyncServer server;
+    private HttpRepository repository;
+
+    @Before
+    public void startServer() throws Exception {
+        server = H2ServerBootstrap.bootstrap()
+            .setVersionPolicy(HttpVersionPolicy.FORCE_HTTP_2)
+            .register("*", () -> new AbstractServerExchangeHandler<Message<HttpRequest, String>>() {
+                @Override
+                protected AsyncRequestConsumer<Message<HttpRequest, String>> supplyConsumer(
+                    HttpRequest request, EntityDetails entityDetails, HttpContext context) {
+                    return new BasicRequestConsumer<>(new StringAsyncEntityConsumer());
+                }
+
+                @Override
+                protected void handle(Message<HttpRequest, String> message,
+                                      AsyncServerRequestHandler.ResponseTrigger responseTrigger,
+                                      HttpContext context) throws IOException, HttpException {
+                    String body = message.getBody();
+                    received.put(message.getHead().getPath(), body == null ? 0 : body.length());
+                    responseTrigger.submitResponse(AsyncResponseBuilder.create(201).build(), context);
+                }
+            })
+            .create();
+        server.start();
+        ListenerEndpoint endpoint = server.listen(new InetSocketAddress("localhost", 0)).get();
+        int port = ((InetSocketAddress) endpoint.getAddress()).getPort();
+
+        repository = new HttpRepository("http://localhost:" + port + "/", null);
+        repository.setHttp2(true);
+        repository.setMethod("PUT");
+        repository.setConcurrency(4);
+    }
+
+    @After
+    public void stopServer() {
+        server.close(CloseMode.IMMEDIATE);
+    }
+
+    @Test(timeout = 60000)
+    public void blockedFileDoesNotStallTheOtherStreams() throws Exception {
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        VirtualFile slow = new SyntheticFile("slow.bin", 2048) {
+            @Override
+            public InputStream open() throws IOException {
+                InputStream zeros = super.open();
+                return new InputStream() {
+                    private int read;
+
+                    @Override
+                    public int read() throws IOException {
+                        if (read++ == 1024) {
+                            reading.countDown();
+                            try {
+                                release.await();
+                            } catch (InterruptedException e) {
+                                throw new InterruptedIOException();
+                            }
+                        }
+                        return zeros.read();
+                    }
+                };
+            }
+        };
+
+        Http2Uploader uploader = new Http2Uploader(repository, null, null);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (HttpDeployer.Connection connection = uploader.connect()) {
+            Future<HttpDeployer.Response> blocked = executor.submit(() ->
+                connection.send("PUT", repository.getRemoteLocation() + "slow.bin", slow, false));
+            reading.await();
+
+            // the slow file is being read, the other uploads of the connection still go through
+            HttpDeployer.Response fast = connection.send("PUT", repository.getRemoteLocation() + "fast.bin",
+                SyntheticFile.file("fast.bin", 1024 * 1024), false);
+            assertEquals(201, fast.getStatus());
+            assertEquals(Integer.valueOf(1024 * 1024), received.get("/fast.bin"));
+            assertFalse(blocked.isDone());
+
+            release.countDown();
+            assertEquals(201, blocked.get().getStatus());
+            assertEquals(Integer.valueOf(2048), received.get("/slow.bin"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void memoryBudgetBelowTheConcurrencyDoesNotDeadlock() throws Exception {
+        List<Binary> binaries = Lists.newArrayList();
+        for (int i = 0; i < 8; i++) {
+            binaries.add(Binary.from(SyntheticFile.file("file-" + i + ".bin", 256 * 1024)));
+        }
+        MemoryBudget.Usage memory = new MemoryBudget(1, 0).start();
+        DeployReport report = new DeployReport(repository.getTarget());
+
+        new Http2Uploader(repository, null, null).deploy(memory.limit(binaries), report);
+
+        assertEquals(8, received.size());
+        assertEquals(1, memory.getPeakOpenFiles());
+        for (Integer length : received.values()) {
+            assertEquals(Integer.valueOf(256 * 1024), length);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2017 CloudBees, Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.binarydeployer.http;
+
+import com.cloudbees.plugins.binarydeployer.core.Binary;
+import com.cloudbees.plugins.binarydeployer.core.DeployReport;
+import com.cloudbees.plugins.binarydeployer.core.RetryPolicy;
+import com.cloudbees.plugins.binarydeployer.core.SyntheticFile;
+import com.google.common.collect.Lists;
+import com.sun.net.httpserver.HttpServer;
+import hudson.AbortException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Uploads to a local HTTP/1.1 server, which only counts the bytes it receives, and can fail the first requests.
+ *
+ * @author Adrien Lecharpentier
+ */
+public class HttpUploaderTest {
+    private final Map<String, Long> received = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+    /** The statuses answered to the first requests of a path, before it is accepted. */
+    private final Map<String, Queue<Integer>> failures = new ConcurrentHashMap<>();
+    private HttpServer server;
+    private HttpRepository repository;
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            long bytes = 0;
+            try (InputStream body = exchange.getRequestBody()) {
+                byte[] buffer = new byte[64 * 1024];
+                int read;
+                while ((read = body.read(buffer)) != -1) {
+                    bytes += read;
+                }
+            }
+            String path = exchange.getRequestURI().getPath();
+            requests.computeIfAbsent(path, p -> new AtomicInteger()).incrementAndGet();
+            Integer failure = failures.getOrDefault(path, new LinkedList<>()).poll();
+            if (failure == null) {
+                received.put(path, bytes);
+            }
+            exchange.sendResponseHeaders(failure == null ? 201 : failure, -1);
+            exchange.close();
+        });
+        server.start();
+
+        repository = new HttpRepository("http://localhost:" + server.getAddress().getPort() + "/", null);
+        repository.setMethod("PUT");
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    /**
+     * The tests of this module run with a heap of 256 MB, see its {@code pom.xml}.
+     */
+    @Test(timeout = 300000)
+    public void fileLargerThanTheHeapIsStreamed() throws Exception {
+        long length = 3L * 1024 * 1024 * 1024;
+        assertTrue("the heap could hold the whole file", Runtime.getRuntime().maxMemory() < length);
+
+        deploy(SyntheticFile.file("large.bin", length), new DeployReport("test"));
+
+        assertEquals(Long.valueOf(length), received.get("/large.bin"));
+    }
+
+    @Test(timeout = 60000)
+    public void unavailableServerIsRetried() throws Exception {
+        failures.put("/flaky.bin", new LinkedList<>(Arrays.asList(503, 503)));
+        repository.setRetryPolicy(new RetryPolicy(3, 0, 0, 0, 0));
+        DeployReport report = new DeployReport("test");
+
+        deploy(SyntheticFile.file("flaky.bin", 1024), report);
+
+        assertEquals(Long.valueOf(1024), received.get("/flaky.bin"));
+        assertEquals(3, requests.get("/flaky.bin").get());
+        assertEquals(2, report.getTransfers().get(0).getRetries());
+        assertEquals(201, report.getTransfers().get(0).getStatus());
+    }
+
+    @Test(timeout = 60000)
+    public void rejectedUploadIsNotRetried() throws Exception {
+        failures.put("/rejected.bin", new LinkedList<>(Collections.singletonList(400)));
+        repository.setRetryPolicy(new RetryPolicy(3, 0, 0, 0, 0));
+
+        try {
+            deploy(SyntheticFile.file("rejected.bin", 1024), new DeployReport("test"));
+            fail("the server rejected the upload");
+        } catch (AbortException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("400"));
+        }
+        assertEquals(1, requests.get("/rejected.bin").get());
+    }
+
+    @Test(timeout = 60000)
+    public void serverStillFailingFailsTheDeployment() throws Exception {
+        failures.put("/down.bin", new LinkedList<>(Arrays.asList(503, 503, 503)));
+        repository.setRetryPolicy(new RetryPolicy(2, 0, 0, 0, 0));
+
+        try {
+            deploy(SyntheticFile.file("down.bin", 1024), new DeployReport("test"));
+            fail("the server never accepted the upload");
+        } catch (IOException e) {
+            assertFalse(e instanceof AbortException);
+            assertTrue(e.getMessage(), e.getMessage().contains("503"));
+        }
+        assertEquals(2, requests.get("/down.bin").get());
+        assertFalse(received.containsKey("/down.bin"));
+    }
+
+    private void deploy(SyntheticFile file, DeployReport report) throws IOException, InterruptedException {
+        new HttpUploader(repository, null, null).deploy(Lists.newArrayList(Binary.from(file)), report);
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2017 CloudBees, Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.binarydeployer.http;
+
+import com.cloudbees.plugins.binarydeployer.core.SyntheticFile;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.nio.DataStreamChannel;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Adrien Lecharpentier
+ */
+public class VirtualFileAsyncEntityTest {
+    @Test(timeout = 30000)
+    public void producerSendsTheWholeFileWithoutWaitingForIt() throws Exception {
+        long length = 1024 * 1024;
+        VirtualFileAsyncEntity entity = new VirtualFileAsyncEntity(length);
+        CountingChannel channel = new CountingChannel(8192);
+        CompletableFuture<Void> copy = copy(entity, SyntheticFile.file("file.bin", length).open());
+
+        while (!channel.ended) {
+            // the I/O thread is never held, whatever the file
+            long start = System.nanoTime();
+            entity.produce(channel);
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+        }
+        copy.get();
+        assertEquals(length, channel.written);
+        assertEquals(0, entity.available());
+    }
+
+    @Test(timeout = 30000)
+    public void copyWaitsForTheBufferToBeSent() throws Exception {
+        VirtualFileAsyncEntity entity = new VirtualFileAsyncEntity(-1);
+        CompletableFuture<Void> copy = copy(entity, SyntheticFile.file("file.bin", 10 * 1024 * 1024).open());
+
+        try {
+            copy.get(200, TimeUnit.MILLISECONDS);
+            fail("the whole file was copied without being sent");
+        } catch (TimeoutException e) {
+            // the buffer is full
+        }
+        assertTrue(entity.available() > 0);
+        entity.releaseResources();
+        try {
+            copy.join();
+            fail("the copy went on after the request ended");
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        assertTrue(entity.isClosed());
+    }
+
+    @Test(timeout = 30000)
+    public void nothingIsAvailableWhileTheFileIsRead() throws Exception {
+        VirtualFileAsyncEntity entity = new VirtualFileAsyncEntity(0);
+        CountingChannel channel = new CountingChannel(8192);
+
+        assertEquals(0, entity.available());
+        entity.produce(channel);
+        assertFalse(channel.ended);
+
+        entity.copy(SyntheticFile.file("empty.bin", 0).open());
+        assertEquals(1, channel.requested);
+        assertEquals(1, entity.available());
+        entity.produce(channel);
+        assertTrue(channel.ended);
+        assertEquals(0, channel.written);
+    }
+
+    /**
+     * @return the copy of the input to the entity, on another thread as done by the deployment
+     */
+    private static CompletableFuture<Void> copy(VirtualFileAsyncEntity entity, InputStream input) {
+        CompletableFuture<Void> copy = new CompletableFuture<>();
+        new Thread(() -> {
+            try {
+                entity.copy(input);
+                copy.complete(null);
+            } catch (Exception e) {
+                copy.completeExceptionally(e);
+            }
+        }).start();
+        return copy;
+    }
+
+    /**
+     * A stream taking at most a window of bytes each time it is asked for output.
+     */
+    private static final class CountingChannel implements DataStreamChannel {
+        private final int window;
+        private volatile long written;
+        private volatile int requested;
+        private volatile boolean ended;
+
+        private CountingChannel(int window) {
+            this.window = window;
+        }
+
+        @Override
+        public void requestOutput() {
+            requested++;
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            int count = Math.min(window, src.remaining());
+            src.position(src.position() + count);
+            written += count;
+            return count;
+        }
+
+        @Override
+        public void endStream() {
+            ended = true;
+        }
+
+        @Override
+        public void endStream(List<? extends Header> trailers) {
+            ended = true;
+        }
+    }
+}
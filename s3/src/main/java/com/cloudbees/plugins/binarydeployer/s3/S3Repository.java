@@ -22,38 +22,98 @@
 
 package com.cloudbees.plugins.binarydeployer.s3;
 
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3ClientBuilder;
 import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.PutObjectRequest;
 import com.amazonaws.services.s3.transfer.TransferManager;
 import com.amazonaws.services.s3.transfer.TransferManagerBuilder;
+import com.amazonaws.services.s3.transfer.Upload;
 import com.cloudbees.jenkins.plugins.awscredentials.AWSCredentialsImpl;
 import com.cloudbees.plugins.binarydeployer.core.Binary;
+import com.cloudbees.plugins.binarydeployer.core.ChecksumFile;
+import com.cloudbees.plugins.binarydeployer.core.Checksums;
+import com.cloudbees.plugins.binarydeployer.core.ClientCache;
+import com.cloudbees.plugins.binarydeployer.core.DeployReport;
+import com.cloudbees.plugins.binarydeployer.core.Digests;
 import com.cloudbees.plugins.binarydeployer.core.Repository;
 import com.cloudbees.plugins.binarydeployer.core.RepositoryDescriptor;
+import com.cloudbees.plugins.binarydeployer.core.RetryPolicy;
 import com.cloudbees.plugins.credentials.CredentialsProvider;
 import com.cloudbees.plugins.credentials.common.StandardListBoxModel;
 import com.google.common.collect.Lists;
+import hudson.AbortException;
 import hudson.Extension;
+import hudson.Util;
 import hudson.model.ItemGroup;
+import hudson.model.Result;
 import hudson.model.Run;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.FormValidation;
 import hudson.util.ListBoxModel;
+import hudson.util.NamingThreadFactory;
 import jenkins.util.VirtualFile;
 import org.apache.log4j.Logger;
 import org.kohsuke.stapler.AncestorInPath;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
 
+import javax.annotation.CheckForNull;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author Adrien Lecharpentier
  */
 public class S3Repository extends Repository {
+    private static final long serialVersionUID = 1L;
     private static final Logger log = Logger.getLogger(S3Repository.class.getCanonicalName());
+    private static final long MB = 1024 * 1024;
+    /**
+     * User metadata holding the SHA-256 of the content of a binary, on content-addressable objects and their pointers.
+     */
+    private static final String SHA256_METADATA = "sha256";
+    /**
+     * Where the contents are uploaded, under the content prefix, until their SHA-256 is verified.
+     */
+    private static final String INCOMING = "incoming/";
+    /**
+     * The number of uploads started ahead for each thread of the transfer manager. Each started upload holds its file
+     * open, so a large deployment must not start them all before waiting for the first.
+     */
+    static final int UPLOADS_PER_THREAD = 2;
+
+    /**
+     * S3 clients are thread safe and expensive to create, so they are shared between deployments using the same
+     * credentials and region.
+     */
+    private static final ClientCache<AmazonS3> clients = new ClientCache<>("S3", 32, TimeUnit.MINUTES.toMillis(10),
+        AmazonS3::shutdown);
 
     private final String credentialsId;
     private final String bucketName;
+    private String region;
+    private int multipartThreshold = 16;
+    private int partSize = 8;
+    private int threads = 10;
+    private boolean checksumFiles;
+    private boolean contentAddressable;
+    private String contentPrefix;
 
     @DataBoundConstructor
     public S3Repository(String credentialsId, String bucketName) {
@@ -69,31 +129,461 @@ public class S3Repository extends Repository {
         return bucketName;
     }
 
+    public String getRegion() {
+        return region;
+    }
+
+    @DataBoundSetter
+    public void setRegion(String region) {
+        this.region = region == null || region.trim().isEmpty() ? null : region.trim();
+    }
+
+    /**
+     * @return the size, in MB, from which a binary is uploaded in several parts
+     */
+    public int getMultipartThreshold() {
+        return multipartThreshold < 1 ? 16 : multipartThreshold;
+    }
+
+    @DataBoundSetter
+    public void setMultipartThreshold(int multipartThreshold) {
+        this.multipartThreshold = multipartThreshold;
+    }
+
+    /**
+     * @return the size, in MB, of each part of a multipart upload
+     */
+    public int getPartSize() {
+        return partSize < 5 ? 5 : partSize;
+    }
+
+    @DataBoundSetter
+    public void setPartSize(int partSize) {
+        this.partSize = partSize;
+    }
+
+    public int getThreads() {
+        return threads < 1 ? 10 : threads;
+    }
+
+    @DataBoundSetter
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public boolean isChecksumFiles() {
+        return checksumFiles;
+    }
+
+    /**
+     * @param checksumFiles upload the {@code .md5}, {@code .sha1} and {@code .sha256} objects of each binary next to it
+     */
+    @DataBoundSetter
+    public void setChecksumFiles(boolean checksumFiles) {
+        this.checksumFiles = checksumFiles;
+    }
+
+    public boolean isContentAddressable() {
+        return contentAddressable;
+    }
+
+    /**
+     * @param contentAddressable store the content of the binaries once, under its SHA-256, and their names as pointers
+     */
+    @DataBoundSetter
+    public void setContentAddressable(boolean contentAddressable) {
+        this.contentAddressable = contentAddressable;
+    }
+
+    /**
+     * @return the prefix of the content-addressable objects, ending with a {@code /}
+     */
+    public String getContentPrefix() {
+        return contentPrefix == null ? "cas/" : contentPrefix;
+    }
+
+    @DataBoundSetter
+    public void setContentPrefix(String contentPrefix) {
+        contentPrefix = Util.fixEmptyAndTrim(contentPrefix);
+        this.contentPrefix = contentPrefix == null || contentPrefix.endsWith("/") ? contentPrefix : contentPrefix + "/";
+    }
+
     @Override
-    protected void deploy(List<Binary> binaries, Run run) throws IOException {
-        log.debug("Will deploy files to S3::{}" + bucketName);
-        AWSCredentialsImpl credentials = CredentialsProvider.findCredentialById(
-            credentialsId, AWSCredentialsImpl.class, run, Lists.newArrayList()
-        );
+    protected void deploy(Iterable<Binary> binaries, Run run) throws IOException, InterruptedException {
+        log.debug("Will deploy files to S3::" + bucketName);
+        try {
+            DeployReport report = DeployReport.of(run, this);
+            deploy(binaries, client(run), report);
+        } catch (IOException | RuntimeException e) {
+            run.setResult(Result.FAILURE);
+            throw e;
+        }
+    }
+
+    /**
+     * @param client the client to deploy with, released once the deployment is done
+     */
+    void deploy(Iterable<Binary> binaries, ClientCache.Lease<AmazonS3> client, DeployReport report)
+        throws IOException, InterruptedException {
+        try (Deployment deployment = new Deployment(client, report)) {
+            boolean finished = false;
+            try {
+                for (Binary binary : binaries) {
+                    deployment.start(binary);
+                }
+                deployment.finish();
+                finished = true;
+            } finally {
+                if (!finished) {
+                    // whatever failed, the files being read or the binaries being discovered
+                    deployment.abort();
+                }
+            }
+        }
+    }
+
+    private void waitFor(Upload upload) throws IOException, InterruptedException {
+        try {
+            upload.waitForCompletion();
+            log.debug(upload.getDescription() + " completed");
+        } catch (AmazonClientException e) {
+            throw failure("Cannot deploy files to S3::" + bucketName + ": " + upload.getDescription(), e);
+        }
+    }
 
-        TransferManager transferManager = TransferManagerBuilder.standard().withS3Client(
-            AmazonS3ClientBuilder.standard().withCredentials(credentials).build()
-        ).build();
-        for (Binary binary : binaries) {
-            transferManager.upload(prepareUpload(binary.getFile(), binary.getName()));
+    /**
+     * @return an {@link AbortException} for the errors which would fail again, so they aren't retried
+     */
+    static IOException failure(String message, AmazonClientException e) {
+        if (e instanceof AmazonServiceException) {
+            int status = ((AmazonServiceException) e).getStatusCode();
+            if (status >= 400 && status < 500 && status != 408 && status != 429) {
+                return new AbortException(message + ": " + e.getMessage());
+            }
         }
+        return new IOException(message, e);
     }
 
-    private PutObjectRequest prepareUpload(VirtualFile file, String name) throws IOException {
+    /**
+     * The content is uploaded next to the content-addressable objects, and only copied under its SHA-256 once
+     * verified, so a binary which changed while it was read is never deduplicated against.
+     */
+    private String key(Binary binary, @CheckForNull String sha256) {
+        return sha256 == null ? binary.getName() : getContentPrefix() + INCOMING + sha256 + "-" + UUID.randomUUID();
+    }
+
+    /**
+     * Copies the verified content of a binary under its SHA-256, and deletes the uploaded object.
+     */
+    private void store(TransferManager transferManager, AmazonS3 client, Binary binary, String key, String sha256)
+        throws IOException, InterruptedException {
+        try {
+            transferManager.copy(bucketName, key, bucketName, getContentPrefix() + sha256).waitForCompletion();
+        } catch (AmazonClientException e) {
+            throw failure("Cannot deploy " + binary.getName() + " to S3::" + bucketName, e);
+        } finally {
+            delete(client, key);
+        }
+    }
+
+    private void delete(AmazonS3 client, String key) {
+        try {
+            client.deleteObject(bucketName, key);
+        } catch (AmazonClientException e) {
+            log.warn("Cannot delete " + key + " from S3::" + bucketName, e);
+        }
+    }
+
+    boolean exists(AmazonS3 client, String key) throws IOException {
+        try {
+            client.getObjectMetadata(bucketName, key);
+            return true;
+        } catch (AmazonServiceException e) {
+            if (e.getStatusCode() == 404) {
+                return false;
+            }
+            throw failure("Cannot check " + key + " on S3::" + bucketName, e);
+        } catch (AmazonClientException e) {
+            throw failure("Cannot check " + key + " on S3::" + bucketName, e);
+        }
+    }
+
+    /**
+     * Writes an empty object under the name of the binary, redirecting to its content. The SHA-256 of the content is
+     * in its metadata, for clients which don't follow redirections.
+     */
+    private void writePointer(AmazonS3 client, Binary binary, String sha256) throws IOException {
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(0);
+        metadata.addUserMetadata(SHA256_METADATA, sha256);
+        PutObjectRequest request = new PutObjectRequest(bucketName, binary.getName(),
+            new ByteArrayInputStream(new byte[0]), metadata).withRedirectLocation("/" + getContentPrefix() + sha256);
+        try {
+            client.putObject(request);
+        } catch (AmazonClientException e) {
+            throw failure("Cannot deploy " + binary.getName() + " to S3::" + bucketName, e);
+        }
+    }
+
+    private void uploadChecksums(AmazonS3 client, Binary binary, Checksums checksums) throws IOException {
+        if (checksums == null) {
+            return;
+        }
+        for (Map.Entry<String, String> checksum : checksums.bySidecarExtension().entrySet()) {
+            String name = binary.getName() + "." + checksum.getKey();
+            try {
+                client.putObject(bucketName, name, checksum.getValue());
+            } catch (AmazonClientException e) {
+                throw failure("Cannot deploy " + name + " to S3::" + bucketName, e);
+            }
+        }
+    }
+
+    @Override
+    protected List<Binary> missing(List<Binary> binaries, Run run) throws IOException {
+        List<Binary> missing = Lists.newArrayList();
+        try (ClientCache.Lease<AmazonS3> client = client(run)) {
+            for (Binary binary : binaries) {
+                try {
+                    ObjectMetadata metadata = client.get().getObjectMetadata(bucketName, binary.getName());
+                    if (contentAddressable) {
+                        // the pointer is empty, the length is the one of its content
+                        String sha256 = metadata.getUserMetaDataOf(SHA256_METADATA);
+                        metadata = sha256 == null ?
+                            metadata :
+                            client.get().getObjectMetadata(bucketName, getContentPrefix() + sha256);
+                    }
+                    if (metadata.getContentLength() != binary.getFile().length()) {
+                        missing.add(binary);
+                    }
+                } catch (AmazonServiceException e) {
+                    if (e.getStatusCode() != 404) {
+                        throw failure("Cannot verify " + binary.getName() + " on S3::" + bucketName, e);
+                    }
+                    missing.add(binary);
+                } catch (AmazonClientException e) {
+                    throw failure("Cannot verify " + binary.getName() + " on S3::" + bucketName, e);
+                }
+            }
+        }
+        return missing;
+    }
+
+    @Override
+    public String getTarget() {
+        return "s3://" + bucketName;
+    }
+
+    ClientCache.Lease<AmazonS3> client(Run run) throws IOException {
+        AWSCredentialsImpl credentials = credentials(run);
+        // the keys are part of the identity of the client so it is never reused once they changed
+        String keys = credentials == null ?
+            null :
+            credentials.getAccessKey() + ":" + credentials.getSecretKey().getPlainText();
+        return clients.acquire(credentialsId + "@" + (region == null ? "default region" : region), "", keys,
+            () -> newClient(credentials));
+    }
+
+    @CheckForNull
+    AWSCredentialsImpl credentials(Run run) {
+        return CredentialsProvider.findCredentialById(credentialsId, AWSCredentialsImpl.class, run,
+            Lists.newArrayList());
+    }
+
+    AmazonS3 newClient(@CheckForNull AWSCredentialsImpl credentials) {
+        AmazonS3ClientBuilder builder = AmazonS3ClientBuilder.standard().withCredentials(credentials);
+        if (region != null) {
+            builder.withRegion(region);
+        }
+        return builder.build();
+    }
+
+    /**
+     * @param spooled the temporary files holding the content of files whose length is unknown, to delete once the
+     *                deployment is done
+     */
+    private PutObjectRequest prepareUpload(VirtualFile file, String name, @CheckForNull String sha256,
+                                           List<File> spooled) throws IOException {
         log.debug("Preparing upload for " + name + " to S3::" + bucketName);
         ObjectMetadata metadata = new ObjectMetadata();
-        metadata.setContentLength(file.length());
+        if (sha256 != null) {
+            metadata.addUserMetadata(SHA256_METADATA, sha256);
+        }
+        long length = file.length();
+        if (length < 0) {
+            // a bundle is written while it is read, the SDK would buffer all of it in memory to learn its length
+            File spool = spool(file, name);
+            spooled.add(spool);
+            return new PutObjectRequest(bucketName, name, spool).withMetadata(metadata);
+        }
+        metadata.setContentLength(length);
 
         return new PutObjectRequest(
             bucketName, name, file.open(), metadata
         );
     }
 
+    /**
+     * Writes the content of a file to a temporary file, which is uploaded in parts of {@link #getPartSize()}.
+     */
+    private File spool(VirtualFile file, String name) throws IOException {
+        log.debug("Writing " + name + " to a temporary file, its length is unknown");
+        File spool = File.createTempFile("binary-deployer", ".tmp");
+        try (InputStream input = file.open()) {
+            Files.copy(input, spool.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Files.deleteIfExists(spool.toPath());
+            throw e;
+        }
+        return spool;
+    }
+
+    /**
+     * The uploads of a deployment, waited for in the order they were started.
+     */
+    private final class Deployment implements Closeable {
+        private final ClientCache.Lease<AmazonS3> client;
+        private final DeployReport report;
+        private final TransferManager transferManager;
+        private final RetryPolicy.Retries retries = getRetryPolicy().start();
+        private final Deque<Started> pending = new ArrayDeque<>();
+        private final List<File> spooled = Lists.newArrayList();
+
+        private Deployment(ClientCache.Lease<AmazonS3> client, DeployReport report) {
+            this.client = client;
+            this.report = report;
+            this.transferManager = TransferManagerBuilder.standard()
+                .withS3Client(client.get())
+                .withMultipartUploadThreshold(getMultipartThreshold() * MB)
+                .withMinimumUploadPartSize(getPartSize() * MB)
+                .withExecutorFactory(() -> Executors.newFixedThreadPool(getThreads(),
+                    new NamingThreadFactory(new DaemonThreadFactory(), "S3Repository deployment to " + bucketName)))
+                .build();
+        }
+
+        /**
+         * Starts the upload of a binary, once the oldest one completed if too many are already started.
+         */
+        private void start(Binary binary) throws IOException, InterruptedException {
+            if (pending.size() >= getThreads() * UPLOADS_PER_THREAD) {
+                complete(pending.peek());
+                pending.poll();
+            }
+            ChecksumFile file = new ChecksumFile(binary.getFile());
+            // the file of the binary is measured and throttled as a transfer, not its source
+            String sha256 = contentAddressable ? Digests.sha256(binary.getSource()) : null;
+            Started started = new Started(binary, file, sha256);
+            if (sha256 != null && exists(client.get(), getContentPrefix() + sha256)) {
+                log.debug("The content of " + binary.getName() + " is already on S3::" + bucketName);
+            } else {
+                started.upload = upload(started);
+            }
+            pending.add(started);
+        }
+
+        private void finish() throws IOException, InterruptedException {
+            while (!pending.isEmpty()) {
+                complete(pending.peek());
+                pending.poll();
+            }
+        }
+
+        private Upload upload(Started started) throws IOException {
+            started.key = key(started.binary, started.sha256);
+            return transferManager.upload(prepareUpload(started.file, started.key, started.sha256, spooled));
+        }
+
+        private void complete(Started started) throws IOException, InterruptedException {
+            final Binary binary = started.binary;
+            final boolean deduplicated = started.upload == null;
+            retries.call(binary, report, attempt -> {
+                if (attempt > 1 && !deduplicated) {
+                    started.upload = upload(started);
+                }
+                if (started.upload != null) {
+                    // the SDK compares the MD5 of each part with the one S3 computed, the ETag is only that MD5 for
+                    // objects without SSE-KMS or SSE-C encryption
+                    waitFor(started.upload);
+                }
+                if (started.sha256 != null && started.upload != null) {
+                    Checksums checksums = started.file.getChecksums();
+                    try {
+                        if (checksums != null) {
+                            // the content changed since its key was computed
+                            checksums.verify(binary, "sha256", started.sha256);
+                        }
+                    } catch (IOException e) {
+                        delete(client.get(), started.key);
+                        throw e;
+                    }
+                    store(transferManager, client.get(), binary, started.key, started.sha256);
+                }
+                if (started.sha256 != null) {
+                    writePointer(client.get(), binary, started.sha256);
+                }
+                if (checksumFiles) {
+                    uploadChecksums(client.get(), binary, started.file.getChecksums());
+                }
+                return null;
+            });
+            if (deduplicated) {
+                report.deduplicated(binary);
+            } else {
+                report.deployed(binary);
+            }
+        }
+
+        /**
+         * Aborts the uploads started and not completed yet.
+         */
+        private void abort() {
+            for (Started started : pending) {
+                if (started.upload != null && !started.upload.isDone()) {
+                    try {
+                        started.upload.abort();
+                    } catch (AmazonClientException e) {
+                        // the failure of the deployment is the one to report
+                        log.warn("Cannot abort " + started.upload.getDescription(), e);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                // the client is shared, only the thread pool of this deployment must go away
+                transferManager.shutdownNow(false);
+                client.close();
+            } finally {
+                for (File spool : spooled) {
+                    Files.deleteIfExists(spool.toPath());
+                }
+            }
+        }
+    }
+
+    /**
+     * A binary whose upload was started, or whose content was already stored.
+     */
+    private static final class Started {
+        private final Binary binary;
+        private final ChecksumFile file;
+        @CheckForNull
+        private final String sha256;
+        /** The upload of the last attempt, null when the content is already stored. */
+        @CheckForNull
+        private Upload upload;
+        /** The key of the last attempt. */
+        private String key;
+
+        private Started(Binary binary, ChecksumFile file, @CheckForNull String sha256) {
+            this.binary = binary;
+            this.file = file;
+            this.sha256 = sha256;
+        }
+    }
+
     @Extension
     public static class DescriptorImpl extends RepositoryDescriptor {
         @Override
@@ -101,6 +591,13 @@ public class S3Repository extends Repository {
             return Messages.binarydeployer_s3_displayName();
         }
 
+        public FormValidation doCheckPartSize(@QueryParameter int value) {
+            if (value < 5) {
+                return FormValidation.error(Messages.binarydeployer_s3_partSizeTooSmall());
+            }
+            return FormValidation.ok();
+        }
+
         public ListBoxModel doFillCredentialsIdItems(@AncestorInPath ItemGroup context) {
             return new StandardListBoxModel().includeEmptyValue().include(context, AWSCredentialsImpl.class);
         }
@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) 2017 CloudBees, Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.binarydeployer.s3;
+
+import com.amazonaws.AbortedException;
+import com.amazonaws.services.s3.AbstractAmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadResult;
+import com.amazonaws.services.s3.model.CopyObjectRequest;
+import com.amazonaws.services.s3.model.CopyObjectResult;
+import com.amazonaws.services.s3.model.GetObjectMetadataRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.model.UploadPartResult;
+import com.google.common.io.ByteStreams;
+
+import javax.annotation.CheckForNull;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Queue;
+import java.util.SortedMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps the objects of a bucket in memory, in place of S3, and fails the uploads it is told to.
+ *
+ * @author Adrien Lecharpentier
+ */
+class FakeS3 extends AbstractAmazonS3 {
+    final Map<String, byte[]> objects = new ConcurrentHashMap<>();
+    final Map<String, ObjectMetadata> metadata = new ConcurrentHashMap<>();
+    /** The statuses the next uploads of a whole object fail with. */
+    final Queue<Integer> putFailures = new ConcurrentLinkedQueue<>();
+    /** The statuses the next uploads of a part fail with. */
+    final Queue<Integer> partFailures = new ConcurrentLinkedQueue<>();
+    final AtomicInteger puts = new AtomicInteger();
+    final AtomicInteger parts = new AtomicInteger();
+    final AtomicInteger aborted = new AtomicInteger();
+    /** Counted down when a part is uploaded. */
+    final CountDownLatch partStarted = new CountDownLatch(1);
+    /** When set, the parts are only uploaded once it is counted down. */
+    @CheckForNull
+    volatile CountDownLatch partReleased;
+
+    private final Map<String, SortedMap<Integer, byte[]>> multipartUploads = new ConcurrentHashMap<>();
+    private final Map<String, InitiateMultipartUploadRequest> initiated = new ConcurrentHashMap<>();
+
+    @Override
+    public PutObjectResult putObject(PutObjectRequest request) {
+        puts.incrementAndGet();
+        byte[] content = request.getFile() != null ? read(request.getFile().toPath()) : read(request.getInputStream());
+        fail(putFailures.poll());
+        store(request.getKey(), content, request.getMetadata());
+        return new PutObjectResult();
+    }
+
+    @Override
+    public PutObjectResult putObject(String bucketName, String key, String content) {
+        store(key, content.getBytes(StandardCharsets.UTF_8), null);
+        return new PutObjectResult();
+    }
+
+    @Override
+    public ObjectMetadata getObjectMetadata(String bucketName, String key) {
+        ObjectMetadata found = metadata.get(key);
+        if (found == null) {
+            AmazonS3Exception e = new AmazonS3Exception("Not Found");
+            e.setStatusCode(404);
+            throw e;
+        }
+        return found;
+    }
+
+    @Override
+    public ObjectMetadata getObjectMetadata(GetObjectMetadataRequest request) {
+        return getObjectMetadata(request.getBucketName(), request.getKey());
+    }
+
+    @Override
+    public InitiateMultipartUploadResult initiateMultipartUpload(InitiateMultipartUploadRequest request) {
+        String uploadId = UUID.randomUUID().toString();
+        multipartUploads.put(uploadId, new ConcurrentSkipListMap<>());
+        initiated.put(uploadId, request);
+        InitiateMultipartUploadResult result = new InitiateMultipartUploadResult();
+        result.setUploadId(uploadId);
+        return result;
+    }
+
+    @Override
+    public UploadPartResult uploadPart(UploadPartRequest request) {
+        parts.incrementAndGet();
+        partStarted.countDown();
+        CountDownLatch released = partReleased;
+        if (released != null) {
+            try {
+                released.await(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                throw new AbortedException();
+            }
+        }
+        byte[] content;
+        if (request.getFile() != null) {
+            try (InputStream input = new FileInputStream(request.getFile())) {
+                ByteStreams.skipFully(input, request.getFileOffset());
+                content = read(ByteStreams.limit(input, request.getPartSize()));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        } else {
+            content = read(ByteStreams.limit(request.getInputStream(), request.getPartSize()));
+        }
+        fail(partFailures.poll());
+        multipartUploads.get(request.getUploadId()).put(request.getPartNumber(), content);
+        UploadPartResult result = new UploadPartResult();
+        result.setPartNumber(request.getPartNumber());
+        result.setETag(Integer.toHexString(request.getPartNumber()));
+        return result;
+    }
+
+    @Override
+    public CompleteMultipartUploadResult completeMultipartUpload(CompleteMultipartUploadRequest request) {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        for (byte[] part : multipartUploads.remove(request.getUploadId()).values()) {
+            content.write(part, 0, part.length);
+        }
+        store(request.getKey(), content.toByteArray(), initiated.remove(request.getUploadId()).getObjectMetadata());
+        return new CompleteMultipartUploadResult();
+    }
+
+    @Override
+    public void abortMultipartUpload(AbortMultipartUploadRequest request) {
+        aborted.incrementAndGet();
+        multipartUploads.remove(request.getUploadId());
+    }
+
+    @Override
+    public CopyObjectResult copyObject(CopyObjectRequest request) {
+        objects.put(request.getDestinationKey(), objects.get(request.getSourceKey()));
+        metadata.put(request.getDestinationKey(), metadata.get(request.getSourceKey()));
+        return new CopyObjectResult();
+    }
+
+    @Override
+    public void deleteObject(String bucketName, String key) {
+        objects.remove(key);
+        metadata.remove(key);
+    }
+
+    @Override
+    public void shutdown() {
+        // nothing to release
+    }
+
+    private void store(String key, byte[] content, @CheckForNull ObjectMetadata requested) {
+        ObjectMetadata stored = requested == null ? new ObjectMetadata() : requested.clone();
+        stored.setContentLength(content.length);
+        objects.put(key, content);
+        metadata.put(key, stored);
+    }
+
+    private static void fail(@CheckForNull Integer status) {
+        if (status != null) {
+            AmazonS3Exception e = new AmazonS3Exception("Failed with " + status);
+            e.setStatusCode(status);
+            throw e;
+        }
+    }
+
+    private static byte[] read(InputStream input) {
+        try {
+            return ByteStreams.toByteArray(input);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static byte[] read(Path path) {
+        try {
+            return Files.readAllBytes(path);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
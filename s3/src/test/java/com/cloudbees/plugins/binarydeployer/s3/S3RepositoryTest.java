@@ -0,0 +1,342 @@
+/*
+ * Copyright (c) 2017 CloudBees, Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.plugins.binarydeployer.s3;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.AbstractAmazonS3;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.cloudbees.jenkins.plugins.awscredentials.AWSCredentialsImpl;
+import com.cloudbees.plugins.binarydeployer.core.Binary;
+import com.cloudbees.plugins.binarydeployer.core.DeployReport;
+import com.cloudbees.plugins.binarydeployer.core.RetryPolicy;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.Uninterruptibles;
+import hudson.AbortException;
+import hudson.model.Run;
+import jenkins.util.VirtualFile;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks how the binaries are uploaded and how the failures of S3 are retried, with clients answering from a script
+ * or from memory instead of S3.
+ *
+ * @author Adrien Lecharpentier
+ */
+public class S3RepositoryTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final S3Repository repository = new S3Repository("credentials", "bucket");
+    private final Binary binary = Binary.from(VirtualFile.forFile(new File("app.jar")));
+    private final FakeS3 s3 = new FakeS3();
+    /** The number of clients the repositories created. */
+    private final AtomicInteger created = new AtomicInteger();
+
+    @Test
+    public void clientErrorsAbortTheDeployment() {
+        for (int status : new int[]{400, 403, 404}) {
+            assertTrue(status + " is retried", S3Repository.failure("Cannot deploy", error(status))
+                instanceof AbortException);
+        }
+    }
+
+    @Test
+    public void throttlingAndServerErrorsAreRetried() {
+        for (int status : new int[]{408, 429, 500, 503}) {
+            IOException failure = S3Repository.failure("Cannot deploy", error(status));
+            assertFalse(status + " is not retried", failure instanceof AbortException);
+            assertEquals(status, ((AmazonServiceException) failure.getCause()).getStatusCode());
+        }
+    }
+
+    @Test
+    public void networkErrorsAreRetried() {
+        IOException failure = S3Repository.failure("Cannot deploy",
+            new AmazonClientException("Unable to execute HTTP request: Connection reset"));
+        assertFalse(failure instanceof AbortException);
+    }
+
+    @Test
+    public void missingObjectIsNotAFailure() throws IOException {
+        assertFalse(repository.exists(client(404), "cas/0123"));
+        assertTrue(repository.exists(client(), "cas/0123"));
+    }
+
+    @Test
+    public void unavailableS3IsRetriedUntilItAnswers() throws Exception {
+        AtomicInteger requests = new AtomicInteger();
+        AmazonS3 client = client(requests, 503, 503);
+        DeployReport report = new DeployReport("s3://bucket");
+
+        boolean exists = new RetryPolicy(3, 0, 0, 0, 0).start().call(binary, report,
+            attempt -> repository.exists(client, "cas/0123"));
+
+        assertTrue(exists);
+        assertEquals(3, requests.get());
+        assertEquals(2, report.getTransfers().get(0).getRetries());
+    }
+
+    @Test
+    public void deniedAccessIsNotRetried() throws Exception {
+        AtomicInteger requests = new AtomicInteger();
+        AmazonS3 client = client(requests, 403);
+
+        try {
+            new RetryPolicy(3, 0, 0, 0, 0).start().call(binary, null,
+                attempt -> repository.exists(client, "cas/0123"));
+            fail("the access to the bucket is denied");
+        } catch (AbortException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("S3::bucket"));
+        }
+        assertEquals(1, requests.get());
+    }
+
+    @Test(timeout = 60000)
+    public void uploadsAreCompletedWhenTheDeploymentReturns() throws Exception {
+        S3Repository repository = repository("uploads");
+        repository.setThreads(2);
+        List<Binary> binaries = Lists.newArrayList();
+        for (int i = 0; i < 25; i++) {
+            binaries.add(file("file-" + i + ".bin", 1000 + i));
+        }
+
+        DeployReport report = deploy(repository, binaries);
+
+        for (Binary binary : binaries) {
+            assertTrue(binary.getName(), report.isDeployed(binary.getName()));
+            assertStored(binary);
+        }
+        assertEquals(25, s3.puts.get());
+    }
+
+    @Test(timeout = 60000)
+    public void failedUploadIsRetried() throws Exception {
+        S3Repository repository = repository("retried");
+        repository.setRetryPolicy(new RetryPolicy(3, 0, 0, 0, 0));
+        s3.putFailures.addAll(Arrays.asList(503, 500));
+        Binary binary = file("app.jar", 1000);
+
+        DeployReport report = deploy(repository, Collections.singletonList(binary));
+
+        assertStored(binary);
+        assertEquals(3, s3.puts.get());
+        assertEquals(2, report.getTransfers().get(0).getRetries());
+        assertTrue(report.isDeployed("app.jar"));
+    }
+
+    @Test(timeout = 60000)
+    public void failedPartIsRetried() throws Exception {
+        S3Repository repository = repository("parts");
+        repository.setRetryPolicy(new RetryPolicy(2, 0, 0, 0, 0));
+        repository.setMultipartThreshold(1);
+        repository.setPartSize(5);
+        s3.partFailures.add(500);
+        Binary binary = file("app.jar", 11 * 1024 * 1024);
+
+        DeployReport report = deploy(repository, Collections.singletonList(binary));
+
+        assertStored(binary);
+        assertEquals("the failed upload is aborted", 1, s3.aborted.get());
+        assertEquals(1, report.getTransfers().get(0).getRetries());
+    }
+
+    @Test(timeout = 60000)
+    public void rejectedUploadIsNotRetried() throws Exception {
+        S3Repository repository = repository("rejected");
+        repository.setRetryPolicy(new RetryPolicy(3, 0, 0, 0, 0));
+        s3.putFailures.add(403);
+
+        try {
+            deploy(repository, Collections.singletonList(file("app.jar", 1000)));
+            fail("the upload is rejected");
+        } catch (AbortException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("S3::bucket"));
+        }
+        assertEquals(1, s3.puts.get());
+        assertFalse(s3.objects.containsKey("app.jar"));
+    }
+
+    @Test(timeout = 60000)
+    public void failureToReadAFileAbortsTheStartedUploads() throws Exception {
+        S3Repository repository = repository("unreadable");
+        repository.setMultipartThreshold(1);
+        repository.setPartSize(5);
+        s3.partReleased = new CountDownLatch(1);
+        Binary large = file("large.bin", 11 * 1024 * 1024);
+        Binary missing = Binary.from(VirtualFile.forFile(new File(tmp.getRoot(), "missing.bin")));
+        // the missing file is only discovered once the upload of the large one is in progress
+        Iterable<Binary> binaries = () -> new AbstractIterator<Binary>() {
+            private int index;
+
+            @Override
+            protected Binary computeNext() {
+                switch (index++) {
+                    case 0:
+                        return large;
+                    case 1:
+                        Uninterruptibles.awaitUninterruptibly(s3.partStarted);
+                        return missing;
+                    default:
+                        return endOfData();
+                }
+            }
+        };
+
+        try {
+            deploy(repository, binaries);
+            fail("missing.bin cannot be read");
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals(1, s3.aborted.get());
+        assertFalse(s3.objects.containsKey("large.bin"));
+    }
+
+    @Test(timeout = 60000)
+    public void contentIsStoredOnceUnderItsSha256() throws Exception {
+        S3Repository repository = repository("content");
+        repository.setContentAddressable(true);
+        Binary first = file("first.jar", 1000);
+        Binary second = Binary.from(VirtualFile.forFile(copy(first, "second.jar")));
+
+        deploy(repository, Collections.singletonList(first));
+        DeployReport report = deploy(repository, Collections.singletonList(second));
+
+        String sha256 = s3.metadata.get("first.jar").getUserMetaDataOf("sha256");
+        assertEquals(sha256, s3.metadata.get("second.jar").getUserMetaDataOf("sha256"));
+        assertArrayEquals(read(first), s3.objects.get("cas/" + sha256));
+        assertEquals("the content once and the two pointers are uploaded", 3, s3.puts.get());
+        assertEquals(1, report.getDeduplicatedCount());
+        for (String key : s3.objects.keySet()) {
+            assertFalse(key + " is left", key.startsWith("cas/incoming/"));
+        }
+    }
+
+    @Test
+    public void clientIsSharedBetweenDeployments() throws Exception {
+        S3Repository repository = repository("shared");
+        repository.client(null).close();
+        repository.client(null).close();
+
+        assertEquals(1, created.get());
+    }
+
+    /**
+     * @return a repository deploying to the fake S3, identified by its credentials in the cache of the clients
+     */
+    private S3Repository repository(String credentialsId) {
+        return new S3Repository(credentialsId, "bucket") {
+            @Override
+            AWSCredentialsImpl credentials(Run run) {
+                return null;
+            }
+
+            @Override
+            AmazonS3 newClient(AWSCredentialsImpl credentials) {
+                created.incrementAndGet();
+                return s3;
+            }
+        };
+    }
+
+    private static DeployReport deploy(S3Repository repository, Iterable<Binary> binaries) throws Exception {
+        DeployReport report = new DeployReport(repository.getTarget());
+        repository.deploy(report.meter(binaries), repository.client(null), report);
+        return report;
+    }
+
+    private Binary file(String name, int length) throws IOException {
+        byte[] content = new byte[length];
+        new Random(length).nextBytes(content);
+        File file = tmp.newFile(name);
+        Files.write(file.toPath(), content);
+        return Binary.from(VirtualFile.forFile(file));
+    }
+
+    private File copy(Binary binary, String name) throws IOException {
+        File copy = new File(tmp.getRoot(), name);
+        Files.write(copy.toPath(), read(binary));
+        return copy;
+    }
+
+    private void assertStored(Binary binary) throws IOException {
+        assertArrayEquals(binary.getName(), read(binary), s3.objects.get(binary.getName()));
+    }
+
+    private static byte[] read(Binary binary) throws IOException {
+        try (InputStream input = binary.getSource().open()) {
+            return ByteStreams.toByteArray(input);
+        }
+    }
+
+    private static AmazonS3 client(int... statuses) {
+        return client(new AtomicInteger(), statuses);
+    }
+
+    /**
+     * @param requests the number of requests the client received
+     * @param statuses the errors answered to the first requests, the next ones find the object
+     */
+    private static AmazonS3 client(AtomicInteger requests, int... statuses) {
+        return new AbstractAmazonS3() {
+            @Override
+            public ObjectMetadata getObjectMetadata(String bucketName, String key) {
+                int request = requests.getAndIncrement();
+                if (request < statuses.length) {
+                    throw error(statuses[request]);
+                }
+                return new ObjectMetadata();
+            }
+        };
+    }
+
+    private static AmazonS3Exception error(int status) {
+        AmazonS3Exception error = new AmazonS3Exception("Status " + status);
+        error.setStatusCode(status);
+        return error;
+    }
+}